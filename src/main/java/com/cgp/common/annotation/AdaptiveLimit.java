@@ -0,0 +1,58 @@
+package com.cgp.common.annotation;
+
+import com.cgp.common.enums.AdaptiveLimitAlgorithm;
+
+import java.lang.annotation.*;
+
+/**
+ * 自适应并发限流注解
+ * 按方法限制同时执行的请求数, 并根据实际响应时间动态调整上限, 超过上限的请求直接拒绝
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface AdaptiveLimit {
+
+    /**
+     * 初始并发上限
+     */
+    int initialLimit() default 20;
+
+    /**
+     * 最小并发上限
+     */
+    int minLimit() default 1;
+
+    /**
+     * 最大并发上限
+     */
+    int maxLimit() default 200;
+
+    /**
+     * 调整算法 默认为梯度算法
+     */
+    AdaptiveLimitAlgorithm algorithm() default AdaptiveLimitAlgorithm.GRADIENT;
+
+    /**
+     * 梯度算法允许的响应时间波动倍数, 短期平均响应时间不超过长期的该倍数时不降低上限
+     */
+    double tolerance() default 1.5;
+
+    /**
+     * AIMD算法的超时时间,单位ms：响应时间超过该值视为过载
+     */
+    long timeout() default 5000;
+
+    /**
+     * AIMD算法过载时上限的缩减比例
+     */
+    double backoffRatio() default 0.9;
+
+    /**
+     * 返回的错误信息
+     */
+    String message() default "服务繁忙，请稍后再试";
+}
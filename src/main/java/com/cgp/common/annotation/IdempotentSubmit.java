@@ -1,5 +1,7 @@
 package com.cgp.common.annotation;
 
+import com.cgp.common.enums.IdempotentMode;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -7,7 +9,7 @@ import java.lang.annotation.Target;
 
 /**
  * 幂等提交
- * 只适用于单机部署的应用.
+ * 默认只适用于单机部署的应用, 集群部署时使用 {@link IdempotentMode#REDIS}.
  *
  * @author Manaphy
  * @date 2020-08-27
@@ -22,4 +24,43 @@ public @interface IdempotentSubmit {
      * @return int
      */
     int delaySeconds() default 1000;
+
+    /**
+     * 参与计算幂等key的参数下标 默认为空, 即所有参数都参与
+     * 请求、响应、输入输出流等参数始终不参与
+     *
+     * @return int[]
+     */
+    int[] args() default {};
+
+    /**
+     * 参数对象中参与计算幂等key的字段名 默认为空, 即所有字段都参与
+     * 例如只按订单号判重: fields = "orderNo"
+     *
+     * @return String[]
+     */
+    String[] fields() default {};
+
+    /**
+     * 判重方式 默认为本地判重
+     *
+     * @return {@link IdempotentMode}
+     */
+    IdempotentMode mode() default IdempotentMode.LOCAL;
+
+    /**
+     * REDIS模式下处理中标记与返回结果的保存时间 单位:毫秒
+     * 在此时间内的重复请求直接返回第一次请求的结果
+     *
+     * @return long
+     */
+    long resultTtl() default 60 * 1000;
+
+    /**
+     * REDIS模式下重复请求等待第一次请求完成的最长时间 单位:毫秒
+     * 超时仍未完成时按重复请求拒绝
+     *
+     * @return long
+     */
+    long waitMillis() default 3000;
 }
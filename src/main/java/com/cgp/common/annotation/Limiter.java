@@ -1,5 +1,7 @@
 package com.cgp.common.annotation;
 
+import com.cgp.common.enums.LimitAlgorithm;
+
 import java.lang.annotation.*;
 
 /**
@@ -31,7 +33,59 @@ public @interface Limiter {
     /**
      * 到期时间,单位s：
      * 如果在cycle周期时间内超过frequency次，则默认1分钟内无法继续访问
+     * 只对固定窗口算法生效
      */
     long expireTime() default 60;
+
+    /**
+     * 限流的key 支持SpEL表达式, 默认为空, 即按ip限流
+     * 可以使用方法参数(#参数名 或 #p0), 以及 #request 当前请求, #principal 当前用户, #ip 请求ip, 例如:
+     * "#principal?.name", "#request.getHeader('X-Api-Key')", "#userId + ':' + #ip".
+     * 表达式的值为null或空字符串时按ip限流
+     */
+    String key() default "";
+
+    /**
+     * 限流算法 默认为固定窗口
+     */
+    LimitAlgorithm algorithm() default LimitAlgorithm.FIXED_WINDOW;
+
+    /**
+     * 本地预取的令牌数 默认为0, 即每次请求都访问Redis
+     * 大于0时每个节点每次从Redis预取该数量的令牌在本地扣减, 全局额度按cycle对齐的固定窗口分配, algorithm与expireTime不生效.
+     * 数值越大访问Redis越少, 但令牌滞留在部分节点上时其他节点会提前被限流, 建议不超过 frequency / 节点数
+     */
+    int localLease() default 0;
+
+    /**
+     * 多条限流规则 例如同时限制每秒、每分钟与每天的访问次数
+     * 不为空时 frequency、cycle、algorithm、expireTime 与 localLease 不生效,
+     * 所有规则按滑动窗口计数算法在一次脚本调用中原子地判断与计数, 任意一条规则超限时都不计数
+     */
+    Rule[] rules() default {};
+
+    /**
+     * 限流规则
+     */
+    @Target({})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Documented
+    @interface Rule {
+
+        /**
+         * cycle周期时间内最多访问的次数
+         */
+        int frequency();
+
+        /**
+         * 周期时间,单位ms
+         */
+        long cycle();
+
+        /**
+         * 超过该规则时返回的错误信息 为空时使用 {@link Limiter#message()}
+         */
+        String message() default "";
+    }
 }
 
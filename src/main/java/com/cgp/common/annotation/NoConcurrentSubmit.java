@@ -21,4 +21,12 @@ public @interface NoConcurrentSubmit {
      * @return int
      */
     int lockTime() default 10;
+
+    /**
+     * 是否先在本地判重
+     * 开启后同一节点上相同 token + 请求地址 的并发请求直接拒绝, 只有第一个请求会去获取 Redis 分布式锁
+     *
+     * @return boolean
+     */
+    boolean localGuard() default false;
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package com.cgp.common.aspect;
+
+import com.cgp.common.annotation.AdaptiveLimit;
+import com.cgp.common.exception.FrequentRequestsException;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 自适应并发限流
+ * 每个方法维护一个并发上限, 根据响应时间动态调整, 下游变慢时在线程池与队列被占满之前拒绝多余的请求。
+ * 只在本节点内生效, 不访问Redis。
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Aspect
+@Component
+public class AdaptiveLimitAspect {
+
+    private final Map<Method, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+    @Pointcut("@annotation(adaptiveLimit)")
+    public void pointcut(AdaptiveLimit adaptiveLimit) {
+    }
+
+    @Around(value = "pointcut(adaptiveLimit)", argNames = "pjp,adaptiveLimit")
+    public Object around(ProceedingJoinPoint pjp, AdaptiveLimit adaptiveLimit) throws Throwable {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        AdaptiveLimiter limiter = limiters.get(method);
+        if (limiter == null) {
+            limiter = limiters.computeIfAbsent(method, m -> new AdaptiveLimiter(pjp.getSignature().toShortString(), adaptiveLimit));
+        }
+        if (!limiter.tryAcquire()) {
+            throw new FrequentRequestsException(adaptiveLimit.message());
+        }
+        long start = System.nanoTime();
+        try {
+            return pjp.proceed();
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+}
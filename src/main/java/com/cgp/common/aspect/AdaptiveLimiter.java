@@ -0,0 +1,158 @@
+package com.cgp.common.aspect;
+
+import com.cgp.common.annotation.AdaptiveLimit;
+import com.cgp.common.enums.AdaptiveLimitAlgorithm;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应并发限流器
+ * 请求的进出只做CAS计数; 响应时间按采样窗口累加, 窗口结束后由抢到窗口的线程计算一次新的并发上限, 不加锁
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Slf4j
+class AdaptiveLimiter {
+
+    /**
+     * 采样窗口的最短时间
+     */
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 采样窗口的最少样本数
+     */
+    private static final int MIN_SAMPLES = 10;
+
+    /**
+     * 长期平均响应时间的衰减系数 约等于最近20个窗口的平均值
+     */
+    private static final double LONG_RTT_DECAY = 0.05;
+
+    /**
+     * 新上限的平滑系数
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final String name;
+    private final AdaptiveLimitAlgorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final long timeoutNanos;
+    private final double backoffRatio;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * 当前窗口内的最大并发数 用于判断上限是否真的被用到
+     */
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicLong rttSum = new AtomicLong();
+    private final AtomicInteger samples = new AtomicInteger();
+    private final AtomicInteger drops = new AtomicInteger();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+    /**
+     * 以下字段只由抢到窗口的线程修改
+     */
+    private volatile double limit;
+    private volatile double longRtt;
+
+    AdaptiveLimiter(String name, AdaptiveLimit adaptiveLimit) {
+        Assert.isTrue(adaptiveLimit.minLimit() > 0, "minLimit必须大于0");
+        Assert.isTrue(adaptiveLimit.maxLimit() >= adaptiveLimit.minLimit(), "maxLimit不能小于minLimit");
+        this.name = name;
+        this.algorithm = adaptiveLimit.algorithm();
+        this.minLimit = adaptiveLimit.minLimit();
+        this.maxLimit = adaptiveLimit.maxLimit();
+        this.tolerance = adaptiveLimit.tolerance();
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(adaptiveLimit.timeout());
+        this.backoffRatio = adaptiveLimit.backoffRatio();
+        this.limit = Math.min(Math.max(adaptiveLimit.initialLimit(), minLimit), maxLimit);
+    }
+
+    /**
+     * 尝试进入
+     *
+     * @return 并发数已达上限时返回false
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                if (current + 1 > maxInFlight.get()) {
+                    maxInFlight.accumulateAndGet(current + 1, Math::max);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 请求结束 记录响应时间
+     *
+     * @param rttNanos 响应时间 单位:纳秒
+     */
+    void release(long rttNanos) {
+        inFlight.decrementAndGet();
+        rttSum.addAndGet(rttNanos);
+        samples.incrementAndGet();
+        if (rttNanos > timeoutNanos) {
+            drops.incrementAndGet();
+        }
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= WINDOW_NANOS && samples.get() >= MIN_SAMPLES && windowStart.compareAndSet(start, now)) {
+            update();
+        }
+    }
+
+    private void update() {
+        int count = samples.getAndSet(0);
+        long sum = rttSum.getAndSet(0);
+        int dropped = drops.getAndSet(0);
+        int peak = maxInFlight.getAndSet(inFlight.get());
+        if (count <= 0) {
+            return;
+        }
+        double current = limit;
+        // 并发数没有用到上限的一半时, 响应时间不能说明上限是否合适, 只允许降低
+        boolean appLimited = peak < current / 2;
+        double next;
+        if (algorithm == AdaptiveLimitAlgorithm.AIMD) {
+            if (dropped > 0) {
+                next = current * backoffRatio;
+            } else {
+                next = appLimited ? current : current + 1;
+            }
+        } else {
+            double shortRtt = Math.max((double) sum / count, 1);
+            double lastLongRtt = longRtt;
+            double nextLongRtt = lastLongRtt == 0 ? shortRtt : lastLongRtt * (1 - LONG_RTT_DECAY) + shortRtt * LONG_RTT_DECAY;
+            // 长期响应时间远高于短期时加快衰减, 避免负载下降后上限迟迟不能恢复
+            if (nextLongRtt / shortRtt > 2) {
+                nextLongRtt *= 0.95;
+            }
+            longRtt = nextLongRtt;
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * nextLongRtt / shortRtt));
+            double target = current * gradient + Math.sqrt(current);
+            if (appLimited && target > current) {
+                target = current;
+            }
+            next = current * (1 - SMOOTHING) + target * SMOOTHING;
+        }
+        next = Math.min(Math.max(next, minLimit), maxLimit);
+        if ((int) next != (int) current && log.isDebugEnabled()) {
+            log.debug("自适应限流[{}]并发上限调整为{}", name, (int) next);
+        }
+        limit = next;
+    }
+}
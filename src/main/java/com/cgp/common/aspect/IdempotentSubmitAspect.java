@@ -1,7 +1,10 @@
 package com.cgp.common.aspect;
 
 import com.cgp.common.annotation.IdempotentSubmit;
+import com.cgp.common.entity.IdempotentResult;
+import com.cgp.common.enums.IdempotentMode;
 import com.cgp.common.exception.FrequentRequestsException;
+import com.cgp.common.utils.ArgumentFingerprint;
 import com.cgp.common.utils.ResubmitLock;
 import com.cgp.common.utils.WebUtil;
 import lombok.extern.slf4j.Slf4j;
@@ -9,16 +12,31 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
+import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
 import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 幂等切面
+ * REDIS模式下第一次请求先写入处理中标记, 完成后将返回结果保存在同一个key中,
+ * 其他节点上的重复请求等待处理完成后直接返回该结果, 不会重复执行.
+ * 处理中标记带有请求自己的令牌, 执行失败时只删除自己写入的标记; 返回结果包装为 {@link IdempotentResult} 保存, 不会与标记混淆
  *
  * @author Manaphy
  * @date 2020-08-27
@@ -28,6 +46,37 @@ import java.util.stream.Collectors;
 @Component
 public class IdempotentSubmitAspect {
 
+    private static final String IDEMPOTENT_KEY = "Idempotent:";
+
+    /**
+     * 处理中标记前缀 后接请求的令牌
+     */
+    private static final String PROCESSING = "__IDEMPOTENT_PROCESSING__:";
+
+    /**
+     * 等待第一次请求完成时的最长轮询间隔 单位:毫秒
+     */
+    private static final long MAX_POLL_INTERVAL = 200;
+
+    /**
+     * 值等于指定标记时删除
+     * KEYS[1]: 幂等key ARGV[1]: 处理中标记
+     */
+    private static final String DELETE_MARKER_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "return redis.call('del', KEYS[1]) " +
+            "end " +
+            "return 0";
+
+    private static final RedisScript<Long> DELETE_MARKER = new DefaultRedisScript<>(DELETE_MARKER_SCRIPT, Long.class);
+
+    @Resource
+    private ObjectProvider<RedisTemplate<String, Object>> redisTemplateProvider;
+
+    /**
+     * 每个方法的指纹规则
+     */
+    private final Map<Method, FingerprintRule> rules = new ConcurrentHashMap<>();
+
     @Pointcut("@annotation(idempotentSubmit)")
     public void pointCut(IdempotentSubmit idempotentSubmit) {
     }
@@ -38,10 +87,16 @@ public class IdempotentSubmitAspect {
         //从 AOP 中获取 HttpServletRequest
         HttpServletRequest request = WebUtil.getRequest();
         Assert.notNull(request, "request can not null");
-        Object[] pointArgs = pjp.getArgs();
-        List<Object> objects = Arrays.asList(pointArgs);
-        String collect = objects.stream().map(String::valueOf).collect(Collectors.joining());
-        String key = ResubmitLock.handleKey(collect);
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        FingerprintRule rule = rules.get(method);
+        if (rule == null) {
+            rule = rules.computeIfAbsent(method, m -> new FingerprintRule(m, pjp.getSignature().toLongString(), idempotentSubmit));
+        }
+        // 按方法与参数内容计算指纹作为key
+        String key = ArgumentFingerprint.of(rule.scope, pjp.getArgs(), rule.indexes, rule.fields);
+        if (idempotentSubmit.mode() == IdempotentMode.REDIS) {
+            return aroundRedis(pjp, idempotentSubmit, IDEMPOTENT_KEY + key);
+        }
         boolean lock = false;
         try {
             // 对key进行上锁，上锁成功进行下一步业务，失败则进入重复提交业务异常
@@ -56,4 +111,80 @@ public class IdempotentSubmitAspect {
             ResubmitLock.getInstance().unLock(lock, key, seconds);
         }
     }
+
+    /**
+     * 写入处理中标记成功的请求执行业务并保存结果, 其他请求等待结果
+     * 第一次请求执行失败或结果保存失败时删除标记, 等待中的请求会重新竞争执行
+     */
+    private Object aroundRedis(ProceedingJoinPoint pjp, IdempotentSubmit idempotentSubmit, String key) throws Throwable {
+        RedisTemplate<String, Object> redisTemplate = redisTemplateProvider.getIfAvailable();
+        Assert.notNull(redisTemplate, "REDIS模式需要启用Redis");
+        long ttl = idempotentSubmit.resultTtl();
+        long deadline = System.currentTimeMillis() + idempotentSubmit.waitMillis();
+        long interval = 10;
+        String marker = PROCESSING + UUID.randomUUID();
+        while (true) {
+            if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, marker, ttl, TimeUnit.MILLISECONDS))) {
+                return proceedAndStore(pjp, redisTemplate, key, marker, ttl);
+            }
+            Object value = redisTemplate.opsForValue().get(key);
+            if (value instanceof IdempotentResult) {
+                log.debug("重复请求返回已保存的结果:{}", key);
+                return ((IdempotentResult) value).getValue();
+            }
+            // 处理中, 或第一次请求执行失败、结果已过期, 等待后重新竞争
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new FrequentRequestsException("请求处理中，请稍后再试");
+            }
+            Thread.sleep(Math.min(interval, remaining));
+            interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+        }
+    }
+
+    private Object proceedAndStore(ProceedingJoinPoint pjp, RedisTemplate<String, Object> redisTemplate,
+                                   String key, String marker, long ttl) throws Throwable {
+        Object result;
+        try {
+            result = pjp.proceed();
+        } catch (Throwable e) {
+            deleteMarker(redisTemplate, key, marker);
+            throw e;
+        }
+        try {
+            redisTemplate.opsForValue().set(key, new IdempotentResult(result), ttl, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.error("幂等结果保存失败:{}", key, e);
+            deleteMarker(redisTemplate, key, marker);
+        }
+        return result;
+    }
+
+    /**
+     * 删除自己写入的处理中标记 执行超过保存时间后标记可能已被其他请求重新写入, 此时不删除
+     */
+    private void deleteMarker(RedisTemplate<String, Object> redisTemplate, String key, String marker) {
+        try {
+            redisTemplate.execute(DELETE_MARKER, Collections.singletonList(key), marker);
+        } catch (Exception e) {
+            log.error("幂等处理中标记删除失败:{}", key, e);
+        }
+    }
+
+    private static class FingerprintRule {
+        private final String scope;
+        private final int[] indexes;
+        private final Set<String> fields;
+
+        FingerprintRule(Method method, String scope, IdempotentSubmit idempotentSubmit) {
+            int count = method.getParameterCount();
+            for (int index : idempotentSubmit.args()) {
+                Assert.isTrue(index >= 0 && index < count,
+                        "@IdempotentSubmit参数下标[" + index + "]超出范围, 方法" + method.getName() + "共" + count + "个参数");
+            }
+            this.scope = scope;
+            this.indexes = idempotentSubmit.args();
+            this.fields = new HashSet<>(Arrays.asList(idempotentSubmit.fields()));
+        }
+    }
 }
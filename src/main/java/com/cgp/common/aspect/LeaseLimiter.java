@@ -0,0 +1,265 @@
+package com.cgp.common.aspect;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 本地预取额度的限流器
+ * 全局额度按cycle对齐为固定窗口, 每个节点每次从Redis预取一批令牌, 在本地通过CAS扣减, 大部分请求不访问Redis.
+ * 剩余令牌不足一半时由后台线程异步补充, 本地令牌用完时只有一个线程同步预取, 其他线程短暂等待预取结果,
+ * 闲置的令牌定期归还. 预取的数量越大访问Redis越少,
+ * 但令牌可能滞留在部分节点上, 其他节点会提前被限流
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Slf4j
+class LeaseLimiter {
+
+    /**
+     * 预取令牌脚本 从当前窗口的剩余额度中最多取出预取数量的令牌
+     * KEYS[1]: 窗口已分配的额度 ARGV[1]: 访问次数 ARGV[2]: 预取数量 ARGV[3]: 周期
+     * 返回取到的令牌数
+     */
+    private static final String LEASE_SCRIPT = "local used = tonumber(redis.call('get', KEYS[1]) or '0') " +
+            "local granted = math.min(tonumber(ARGV[2]), tonumber(ARGV[1]) - used) " +
+            "if granted <= 0 then return 0 end " +
+            "redis.call('incrby', KEYS[1], granted) " +
+            "if used == 0 then redis.call('pexpire', KEYS[1], ARGV[3]) end " +
+            "return granted";
+
+    /**
+     * 归还令牌脚本 窗口未结束时归还未使用的令牌
+     * KEYS[1]: 窗口已分配的额度 ARGV[1]: 归还的令牌数
+     */
+    private static final String RETURN_SCRIPT = "if redis.call('exists', KEYS[1]) == 1 then " +
+            "redis.call('decrby', KEYS[1], ARGV[1]) " +
+            "end " +
+            "return 1";
+
+    private static final RedisScript<Long> LEASE = new DefaultRedisScript<>(LEASE_SCRIPT, Long.class);
+    private static final RedisScript<Long> RETURN = new DefaultRedisScript<>(RETURN_SCRIPT, Long.class);
+
+    /**
+     * 清理闲置令牌的间隔 单位:毫秒
+     */
+    private static final long SWEEP_INTERVAL = 1000;
+
+    /**
+     * 等待其他线程预取令牌的最长时间 单位:毫秒
+     */
+    private static final long LEASE_WAIT_MILLIS = 50;
+
+    /**
+     * 等待预取时每次的休眠时间
+     */
+    private static final long LEASE_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    LeaseLimiter(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "limiter-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 获取一个令牌
+     *
+     * @param key       限流的key
+     * @param frequency 每个周期的全局访问次数
+     * @param cycle     周期 单位:毫秒
+     * @param lease     每次预取的令牌数
+     * @return 0 表示允许访问, 否则返回需要等待的时间 单位:毫秒
+     */
+    long acquire(String key, int frequency, long cycle, int lease) {
+        long now = System.currentTimeMillis();
+        long window = now / cycle;
+        Bucket bucket = getBucket(key, window, frequency, cycle, lease);
+        long waitDeadline = 0;
+        while (true) {
+            if (bucket.retired) {
+                // 令牌桶已被清理, 改用新的令牌桶
+                bucket = getBucket(key, window, frequency, cycle, lease);
+            }
+            long tokens = bucket.tokens.get();
+            if (tokens > 0) {
+                if (bucket.tokens.compareAndSet(tokens, tokens - 1)) {
+                    if (tokens - 1 <= lease / 2) {
+                        refill(bucket);
+                    }
+                    return 0;
+                }
+                continue;
+            }
+            // 当前窗口的全局额度用完后等待下一个窗口
+            if (bucket.exhausted) {
+                return cycle - now % cycle;
+            }
+            // 本地令牌用完时只由一个线程同步预取
+            if (bucket.refilling.compareAndSet(false, true)) {
+                long granted;
+                try {
+                    granted = lease(bucket);
+                } finally {
+                    bucket.refilling.set(false);
+                }
+                if (granted <= 0 && !bucket.retired) {
+                    return cycle - now % cycle;
+                }
+                continue;
+            }
+            // 其他线程正在预取, 短暂等待后重试
+            if (waitDeadline == 0) {
+                waitDeadline = System.currentTimeMillis() + LEASE_WAIT_MILLIS;
+            } else if (System.currentTimeMillis() >= waitDeadline) {
+                return LEASE_WAIT_MILLIS;
+            }
+            LockSupport.parkNanos(LEASE_WAIT_NANOS);
+        }
+    }
+
+    private Bucket getBucket(String key, long window, int frequency, long cycle, int lease) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null || bucket.window < window || bucket.retired) {
+            bucket = buckets.compute(key, (k, b) -> b == null || b.window < window || b.retired
+                    ? new Bucket(k + ":" + window, window, frequency, cycle, lease) : b);
+        }
+        if (!bucket.touched) {
+            bucket.touched = true;
+        }
+        return bucket;
+    }
+
+    private void refill(Bucket bucket) {
+        if (bucket.exhausted || !bucket.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    lease(bucket);
+                } catch (Exception e) {
+                    log.warn("限流令牌预取失败[{}]", bucket.redisKey, e);
+                } finally {
+                    bucket.refilling.set(false);
+                }
+            });
+        } catch (Exception e) {
+            bucket.refilling.set(false);
+        }
+    }
+
+    private long lease(Bucket bucket) {
+        Long granted = stringRedisTemplate.execute(LEASE, Collections.singletonList(bucket.redisKey),
+                bucket.frequency, bucket.lease, bucket.cycle);
+        long count = granted == null ? 0 : granted;
+        if (count < bucket.leaseCount) {
+            bucket.exhausted = true;
+        }
+        if (count > 0) {
+            bucket.tokens.addAndGet(count);
+            // 预取期间令牌桶已被清理, 清理时可能没有拿到这次的令牌, 在这里归还
+            if (bucket.retired) {
+                giveBack(bucket);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 移除已结束窗口的令牌桶, 归还上个清理周期内没有访问的令牌桶的令牌
+     * 移除前先标记为已清理, 之后仍在使用该令牌桶的线程会改用新的令牌桶, 预取到的令牌由预取线程归还
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Bucket>> iterator = buckets.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Bucket bucket = iterator.next().getValue();
+            if (bucket.window < now / bucket.cycleMillis) {
+                bucket.retired = true;
+                iterator.remove();
+            } else if (bucket.touched) {
+                bucket.touched = false;
+            } else {
+                bucket.retired = true;
+                iterator.remove();
+                giveBack(bucket);
+            }
+        }
+    }
+
+    private void giveBack(Bucket bucket) {
+        long tokens = bucket.tokens.getAndSet(0);
+        if (tokens <= 0) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(RETURN, Collections.singletonList(bucket.redisKey), String.valueOf(tokens));
+        } catch (Exception e) {
+            log.warn("限流令牌归还失败[{}]", bucket.redisKey, e);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+        for (Bucket bucket : buckets.values()) {
+            bucket.retired = true;
+            giveBack(bucket);
+        }
+        buckets.clear();
+    }
+
+    private static class Bucket {
+        private final String redisKey;
+        private final long window;
+        private final long cycleMillis;
+        private final long leaseCount;
+        private final String frequency;
+        private final String cycle;
+        private final String lease;
+        private final AtomicLong tokens = new AtomicLong();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        /**
+         * 当前窗口的全局额度已用完
+         */
+        private volatile boolean exhausted;
+        /**
+         * 已从令牌桶集合中移除
+         */
+        private volatile boolean retired;
+        /**
+         * 上个清理周期后是否有访问
+         */
+        private volatile boolean touched;
+
+        Bucket(String redisKey, long window, int frequency, long cycle, int lease) {
+            this.redisKey = redisKey;
+            this.window = window;
+            this.cycleMillis = cycle;
+            this.leaseCount = lease;
+            this.frequency = String.valueOf(frequency);
+            this.cycle = String.valueOf(cycle);
+            this.lease = String.valueOf(lease);
+        }
+    }
+}
@@ -1,34 +1,179 @@
 package com.cgp.common.aspect;
 
 import com.cgp.common.annotation.Limiter;
-import com.cgp.common.exception.FrequentRequestsException;
+import com.cgp.common.enums.LimitAlgorithm;
+import com.cgp.common.exception.LimitExceededException;
 import com.cgp.common.utils.WebUtil;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 import javax.annotation.Resource;
-import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * ip防刷api功能实现。
  * 该功能使用redis作为存储，方便在集群中使用。
- * 如果是单项目部署，可以将redis换成本地缓存。
+ * 每次请求只执行一次限流脚本, 判断与计数在Redis中原子完成, 并发请求不会超出限制。
+ * 设置了 {@link Limiter#localLease()} 的方法在本地按预取的额度限流, 不必每次请求都访问Redis。
+ * 默认按ip限流, 可以通过 {@link Limiter#key()} 按用户、token等维度限流。
+ * 配置了多条规则时所有规则在一次脚本调用中判断, 超限时抛出的异常携带触发的规则与需要等待的时间。
  *
  * @author Manaphy
  */
 @Aspect
 @Component
-public class LimitingAspect {
-    private static final String LIMITING_KEY = "limiting:%s:%s";
-    private static final String LIMITING_BEGIN_TIME = "beginTime";
-    private static final String LIMITING_EX_FREQUENCY = "exFrequency";
+public class LimitingAspect implements DisposableBean {
+    private static final String LIMITING_KEY = "Limiter:";
+
+    /**
+     * 固定窗口脚本 第一次访问时开始计时, 超过访问次数后将过期时间延长到封禁时间
+     * KEYS[1]: 计数 ARGV[1]: 访问次数 ARGV[2]: 周期 ARGV[3]: 当前时间 ARGV[4]: 封禁时间
+     * 以下脚本均返回 0 表示允许访问, 否则返回需要等待的时间 单位:毫秒
+     */
+    private static final String FIXED_WINDOW_SCRIPT = "local count = redis.call('incr', KEYS[1]) " +
+            "if count == 1 then redis.call('pexpire', KEYS[1], ARGV[2]) end " +
+            "if count <= tonumber(ARGV[1]) then return 0 end " +
+            "local ttl = redis.call('pttl', KEYS[1]) " +
+            "if count == tonumber(ARGV[1]) + 1 and ttl < tonumber(ARGV[4]) then " +
+            "redis.call('pexpire', KEYS[1], ARGV[4]) ttl = tonumber(ARGV[4]) " +
+            "end " +
+            "return math.max(ttl, 1)";
+
+    /**
+     * 滑动窗口日志脚本 zset记录每次访问, 成员为访问标识, 分数为访问时间
+     * KEYS[1]: 访问记录 ARGV[1]: 访问次数 ARGV[2]: 周期 ARGV[3]: 当前时间 ARGV[5]: 访问标识
+     */
+    private static final String SLIDING_LOG_SCRIPT = "local cycle = tonumber(ARGV[2]) " +
+            "local now = tonumber(ARGV[3]) " +
+            "redis.call('zremrangebyscore', KEYS[1], '-inf', now - cycle) " +
+            "if redis.call('zcard', KEYS[1]) < tonumber(ARGV[1]) then " +
+            "redis.call('zadd', KEYS[1], now, ARGV[5]) " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]) " +
+            "return 0 " +
+            "end " +
+            "local first = redis.call('zrange', KEYS[1], 0, 0, 'WITHSCORES') " +
+            "if first[2] then return math.max(tonumber(first[2]) + cycle - now, 1) end " +
+            "return cycle";
+
+    /**
+     * 滑动窗口计数脚本 hash保存当前窗口序号w, 当前窗口计数c, 上一窗口计数p,
+     * 上一窗口的计数按其与当前周期重叠的比例计入
+     * KEYS[1]: 计数 ARGV[1]: 访问次数 ARGV[2]: 周期 ARGV[3]: 当前时间
+     */
+    private static final String SLIDING_WINDOW_SCRIPT = "local limit = tonumber(ARGV[1]) " +
+            "local cycle = tonumber(ARGV[2]) " +
+            "local now = tonumber(ARGV[3]) " +
+            "local window = math.floor(now / cycle) " +
+            "local elapsed = now - window * cycle " +
+            "local state = redis.call('hmget', KEYS[1], 'w', 'c', 'p') " +
+            "local current = 0 " +
+            "local previous = 0 " +
+            "if tonumber(state[1]) == window then " +
+            "current = tonumber(state[2]) previous = tonumber(state[3]) " +
+            "elseif tonumber(state[1]) == window - 1 then " +
+            "previous = tonumber(state[2]) " +
+            "end " +
+            "if previous * (cycle - elapsed) / cycle + current + 1 <= limit then " +
+            "redis.call('hmset', KEYS[1], 'w', window, 'c', current + 1, 'p', previous) " +
+            "redis.call('pexpire', KEYS[1], cycle * 2) " +
+            "return 0 " +
+            "end " +
+            "if current + 1 > limit or previous == 0 then return cycle - elapsed end " +
+            "return math.max(math.ceil(cycle - elapsed - (limit - 1 - current) * cycle / previous), 1)";
+
+    /**
+     * 令牌桶脚本 hash保存剩余令牌数t与上次补充时间ts, 每毫秒补充 访问次数/周期 个令牌
+     * KEYS[1]: 令牌桶 ARGV[1]: 桶容量 ARGV[2]: 周期 ARGV[3]: 当前时间
+     */
+    private static final String TOKEN_BUCKET_SCRIPT = "local capacity = tonumber(ARGV[1]) " +
+            "local now = tonumber(ARGV[3]) " +
+            "local rate = capacity / tonumber(ARGV[2]) " +
+            "local state = redis.call('hmget', KEYS[1], 't', 'ts') " +
+            "local tokens = capacity " +
+            "if state[1] then " +
+            "tokens = math.min(capacity, tonumber(state[1]) + math.max(now - tonumber(state[2]), 0) * rate) " +
+            "end " +
+            "local retry = 0 " +
+            "if tokens >= 1 then tokens = tokens - 1 " +
+            "else retry = math.max(math.ceil((1 - tokens) / rate), 1) end " +
+            "redis.call('hmset', KEYS[1], 't', tokens, 'ts', now) " +
+            "redis.call('pexpire', KEYS[1], ARGV[2]) " +
+            "return retry";
+
+    /**
+     * 多规则脚本 每条规则按滑动窗口计数算法判断, 全部通过后才为每条规则计数
+     * KEYS[i]: 第i条规则的计数 ARGV[1]: 当前时间 ARGV[2i]: 第i条规则的访问次数 ARGV[2i+1]: 第i条规则的周期
+     * 返回 {-1, 0} 表示允许访问, 否则返回 {触发的规则序号(从0开始), 需要等待的时间}
+     */
+    private static final String MULTI_RULE_SCRIPT = "local now = tonumber(ARGV[1]) " +
+            "local states = {} " +
+            "for i = 1, #KEYS do " +
+            "local limit = tonumber(ARGV[i * 2]) " +
+            "local cycle = tonumber(ARGV[i * 2 + 1]) " +
+            "local window = math.floor(now / cycle) " +
+            "local elapsed = now - window * cycle " +
+            "local state = redis.call('hmget', KEYS[i], 'w', 'c', 'p') " +
+            "local current = 0 " +
+            "local previous = 0 " +
+            "if tonumber(state[1]) == window then " +
+            "current = tonumber(state[2]) previous = tonumber(state[3]) " +
+            "elseif tonumber(state[1]) == window - 1 then " +
+            "previous = tonumber(state[2]) " +
+            "end " +
+            "if previous * (cycle - elapsed) / cycle + current + 1 > limit then " +
+            "if current + 1 > limit or previous == 0 then return {i - 1, cycle - elapsed} end " +
+            "return {i - 1, math.max(math.ceil(cycle - elapsed - (limit - 1 - current) * cycle / previous), 1)} " +
+            "end " +
+            "states[i] = {window, current, previous, cycle} " +
+            "end " +
+            "for i = 1, #KEYS do " +
+            "local s = states[i] " +
+            "redis.call('hmset', KEYS[i], 'w', s[1], 'c', s[2] + 1, 'p', s[3]) " +
+            "redis.call('pexpire', KEYS[i], s[4] * 2) " +
+            "end " +
+            "return {-1, 0}";
+
+    private static final SpelExpressionParser PARSER = new SpelExpressionParser();
+    private static final ParameterNameDiscoverer PARAMETER_NAME_DISCOVERER = new DefaultParameterNameDiscoverer();
+
+    private static final RedisScript<Long> FIXED_WINDOW = new DefaultRedisScript<>(FIXED_WINDOW_SCRIPT, Long.class);
+    private static final RedisScript<Long> SLIDING_LOG = new DefaultRedisScript<>(SLIDING_LOG_SCRIPT, Long.class);
+    private static final RedisScript<Long> SLIDING_WINDOW = new DefaultRedisScript<>(SLIDING_WINDOW_SCRIPT, Long.class);
+    private static final RedisScript<Long> TOKEN_BUCKET = new DefaultRedisScript<>(TOKEN_BUCKET_SCRIPT, Long.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> MULTI_RULE = new DefaultRedisScript<>(MULTI_RULE_SCRIPT, List.class);
 
     @Resource
-    private RedisTemplate<String, Object> redisTemplate;
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 每个方法的限流规则 避免每次请求重复解析注解与拼接参数
+     */
+    private final Map<Method, LimitRule> rules = new ConcurrentHashMap<>();
+
+    private volatile LeaseLimiter leaseLimiter;
 
     @Pointcut("@annotation(limiter)")
     public void pointcut(Limiter limiter) {
@@ -36,39 +181,151 @@ public class LimitingAspect {
 
     @Around(value = "pointcut(limiter)", argNames = "pjp,limiter")
     public Object around(ProceedingJoinPoint pjp, Limiter limiter) throws Throwable {
-        //获取请求的ip和方法
-        String ipAddress = WebUtil.getIpAddress();
-        String methodName = pjp.getSignature().toLongString();
-
-        //获取方法的访问周期和频率
-        long cycle = limiter.cycle();
-        int frequency = limiter.frequency();
-        long currentTime = System.currentTimeMillis();
-
-        //获取redis中周期内第一次访问方法的时间和执行的次数
-        Long beginTimeLong = (Long) redisTemplate.opsForHash().get(String.format(LIMITING_KEY, ipAddress, methodName), LIMITING_BEGIN_TIME);
-        Integer exFrequencyLong = (Integer) redisTemplate.opsForHash().get(String.format(LIMITING_KEY, ipAddress, methodName), LIMITING_EX_FREQUENCY);
-
-        long beginTime = beginTimeLong == null ? 0L : beginTimeLong;
-        int exFrequency = exFrequencyLong == null ? 0 : exFrequencyLong;
-
-        //如果当前时间减去周期内第一次访问方法的时间大于周期时间，则正常访问
-        //并将周期内第一次访问方法的时间和执行次数初始化
-        if (currentTime - beginTime > cycle) {
-            redisTemplate.opsForHash().put(String.format(LIMITING_KEY, ipAddress, methodName), LIMITING_BEGIN_TIME, currentTime);
-            redisTemplate.opsForHash().put(String.format(LIMITING_KEY, ipAddress, methodName), LIMITING_EX_FREQUENCY, 1);
-            redisTemplate.expire(String.format(LIMITING_KEY, ipAddress, methodName), limiter.expireTime(), TimeUnit.SECONDS);
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        LimitRule rule = rules.computeIfAbsent(method, m -> new LimitRule(pjp.getSignature().toLongString(), limiter));
+
+        String key = getKey(rule, method, pjp.getArgs());
+        if (rule.rules.length > 0) {
+            checkRules(rule, limiter, key);
             return pjp.proceed();
+        }
+        Long retryAfter;
+        if (rule.lease > 0) {
+            retryAfter = getLeaseLimiter().acquire(key, limiter.frequency(), limiter.cycle(), rule.lease);
+        } else if (rule.algorithm == LimitAlgorithm.SLIDING_LOG) {
+            String now = String.valueOf(System.currentTimeMillis());
+            String member = now + ":" + ThreadLocalRandom.current().nextInt();
+            retryAfter = stringRedisTemplate.execute(rule.script, Collections.singletonList(key),
+                    rule.frequency, rule.cycle, now, rule.expire, member);
         } else {
-            //如果在周期时间内，执行次数小于频率，则正常访问
-            //并将执行次数加一
-            if (exFrequency < frequency) {
-                redisTemplate.opsForHash().put(String.format(LIMITING_KEY, ipAddress, methodName), LIMITING_EX_FREQUENCY, exFrequency + 1);
-                redisTemplate.expire(String.format(LIMITING_KEY, ipAddress, methodName), limiter.expireTime(), TimeUnit.SECONDS);
-                return pjp.proceed();
-            } else {
-                //否则抛出访问频繁异常
-                throw new FrequentRequestsException(limiter.message());
+            retryAfter = stringRedisTemplate.execute(rule.script, Collections.singletonList(key),
+                    rule.frequency, rule.cycle, String.valueOf(System.currentTimeMillis()), rule.expire);
+        }
+        if (retryAfter != null && retryAfter > 0) {
+            //超过访问频率则抛出访问频繁异常
+            throw new LimitExceededException(limiter.message(), 0, retryAfter);
+        }
+        return pjp.proceed();
+    }
+
+    /**
+     * 一次脚本调用判断所有规则
+     * 各规则的key使用相同的hash tag, 集群模式下位于同一个slot
+     */
+    private void checkRules(LimitRule rule, Limiter limiter, String key) {
+        Limiter.Rule[] rules = rule.rules;
+        List<String> keys = new ArrayList<>(rules.length);
+        String base = "{" + key + "}:";
+        for (int i = 0; i < rules.length; i++) {
+            keys.add(base + i);
+        }
+        Object[] args = rule.ruleArgs.clone();
+        args[0] = String.valueOf(System.currentTimeMillis());
+        List<?> result = stringRedisTemplate.execute(MULTI_RULE, keys, args);
+        if (result == null || result.size() < 2) {
+            return;
+        }
+        int ruleIndex = ((Number) result.get(0)).intValue();
+        if (ruleIndex >= 0) {
+            String message = StringUtils.hasText(rules[ruleIndex].message()) ? rules[ruleIndex].message() : limiter.message();
+            throw new LimitExceededException(message, ruleIndex, ((Number) result.get(1)).longValue());
+        }
+    }
+
+    /**
+     * 以方法和ip(或key表达式的值)作为限流的key
+     * key表达式的值为空时(例如匿名用户的 #principal)按ip限流, 避免这类请求共用同一个key
+     */
+    private String getKey(LimitRule rule, Method method, Object[] args) {
+        if (rule.keyExpression == null) {
+            return rule.keyPrefix + WebUtil.getIpAddress();
+        }
+        HttpServletRequest request = WebUtil.getRequest();
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(null, method, args, PARAMETER_NAME_DISCOVERER);
+        context.setVariable("request", request);
+        context.setVariable("principal", request == null ? null : request.getUserPrincipal());
+        if (rule.keyUsesIp) {
+            context.setVariable("ip", WebUtil.getIpAddress());
+        }
+        String key = rule.keyExpression.getValue(context, String.class);
+        if (!StringUtils.hasLength(key)) {
+            return rule.keyPrefix + "ip:" + WebUtil.getIpAddress();
+        }
+        return rule.keyPrefix + key;
+    }
+
+    private LeaseLimiter getLeaseLimiter() {
+        if (leaseLimiter == null) {
+            synchronized (this) {
+                if (leaseLimiter == null) {
+                    leaseLimiter = new LeaseLimiter(stringRedisTemplate);
+                }
+            }
+        }
+        return leaseLimiter;
+    }
+
+    /**
+     * 停止时归还本地未使用的令牌
+     */
+    @Override
+    public void destroy() {
+        if (leaseLimiter != null) {
+            leaseLimiter.shutdown();
+        }
+    }
+
+    private static RedisScript<Long> getScript(LimitAlgorithm algorithm) {
+        switch (algorithm) {
+            case SLIDING_LOG:
+                return SLIDING_LOG;
+            case SLIDING_WINDOW:
+                return SLIDING_WINDOW;
+            case TOKEN_BUCKET:
+                return TOKEN_BUCKET;
+            default:
+                return FIXED_WINDOW;
+        }
+    }
+
+    /**
+     * 限流规则 key表达式预先解析, 脚本参数预先转为字符串
+     */
+    private static class LimitRule {
+        private final String keyPrefix;
+        private final LimitAlgorithm algorithm;
+        private final RedisScript<Long> script;
+        private final String frequency;
+        private final String cycle;
+        private final String expire;
+        private final int lease;
+        private final Expression keyExpression;
+        private final boolean keyUsesIp;
+        private final Limiter.Rule[] rules;
+        /**
+         * 多规则脚本的参数 第一个位置留给当前时间
+         */
+        private final String[] ruleArgs;
+
+        LimitRule(String methodName, Limiter limiter) {
+            Assert.isTrue(limiter.frequency() > 0, "frequency必须大于0");
+            Assert.isTrue(limiter.cycle() > 0, "cycle必须大于0");
+            this.keyPrefix = LIMITING_KEY + methodName + ":";
+            this.algorithm = limiter.algorithm();
+            this.script = getScript(algorithm);
+            this.frequency = String.valueOf(limiter.frequency());
+            this.cycle = String.valueOf(limiter.cycle());
+            this.expire = String.valueOf(limiter.expireTime() * 1000);
+            this.lease = Math.max(limiter.localLease(), 0);
+            this.keyExpression = StringUtils.hasText(limiter.key()) ? PARSER.parseExpression(limiter.key()) : null;
+            this.keyUsesIp = limiter.key().contains("#ip");
+            this.rules = limiter.rules();
+            this.ruleArgs = new String[rules.length * 2 + 1];
+            for (int i = 0; i < rules.length; i++) {
+                Assert.isTrue(rules[i].frequency() > 0, "rules.frequency必须大于0");
+                Assert.isTrue(rules[i].cycle() > 0, "rules.cycle必须大于0");
+                ruleArgs[i * 2 + 1] = String.valueOf(rules[i].frequency());
+                ruleArgs[i * 2 + 2] = String.valueOf(rules[i].cycle());
             }
         }
     }
@@ -17,7 +17,9 @@ import org.springframework.util.Assert;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * AOP类解析注解-配合redis-解决程序集群部署时请求可能会落到多台机器上的问题。
@@ -35,6 +37,11 @@ public class NoConcurrentSubmitAspect {
     @Resource
     private RedisLock redisLock;
 
+    /**
+     * 本节点正在处理的请求 开启 localGuard 时使用
+     */
+    private final Set<String> localKeys = ConcurrentHashMap.newKeySet();
+
     @Bean
     @ConditionalOnMissingBean
     public RedisLock redisLock() {
@@ -65,6 +72,21 @@ public class NoConcurrentSubmitAspect {
         String token = request.getHeader("Authorization");
         String path = request.getServletPath();
         String key = getKey(token, path);
+        if (!noRepeatSubmit.localGuard()) {
+            return proceedWithLock(pjp, key, lockSeconds);
+        }
+        // 同一节点上的重复请求直接拒绝, 不访问Redis
+        if (!localKeys.add(key)) {
+            throw new FrequentRequestsException("重复请求，请稍后再试");
+        }
+        try {
+            return proceedWithLock(pjp, key, lockSeconds);
+        } finally {
+            localKeys.remove(key);
+        }
+    }
+
+    private Object proceedWithLock(ProceedingJoinPoint pjp, String key, int lockSeconds) throws Throwable {
         String clientId = getClientId();
         boolean isSuccess = redisLock.tryLock(key, clientId, lockSeconds);
         if (isSuccess) {
@@ -2,8 +2,7 @@ package com.cgp.common.aspect;
 
 import com.cgp.common.entity.WebLog;
 import com.cgp.common.utils.WebUtil;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.cgp.common.weblog.WebLogDispatcher;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.*;
@@ -16,6 +15,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import javax.annotation.Resource;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -27,6 +27,7 @@ import java.util.*;
 
 /**
  * 统一日志处理切面
+ * 请求线程只收集日志信息并生成参数与结果的快照, 日志的序列化与输出交给 {@link WebLogDispatcher} 的后台线程
  *
  * @author Manaphy
  * @version 1.2
@@ -39,6 +40,15 @@ import java.util.*;
 @ConditionalOnProperty(prefix = "manaphy", name = "weblog", havingValue = "true", matchIfMissing = true)
 public class WebLogAspect {
 
+    /**
+     * 不获取参数的参数类型
+     */
+    private static final Set<String> IGNORED_TYPES = new HashSet<>(Arrays.asList(Model.class.getName(),
+            HttpServletRequest.class.getName(), HttpServletResponse.class.getName(), ServletResponse.class.getName()));
+
+    @Resource
+    private WebLogDispatcher webLogDispatcher;
+
     /**
      * execution() 表达式的主体
      * 第一个`*`号 表示返回值的类型任意
@@ -71,29 +81,25 @@ public class WebLogAspect {
         Method method = methodSignature.getMethod();
         String clazz = joinPoint.getTarget().getClass().toString();
         String className = clazz.substring(clazz.lastIndexOf(".") + 1);
-        ObjectMapper mapper = new ObjectMapper();
         //记录请求信息
         WebLog webLog = new WebLog();
         webLog.setStartTime(new Date());
-        webLog.setUrl(request.getRequestURL().toString());
+        webLog.setUrl(urlStr);
         webLog.setUri(uriStr);
         webLog.setIp(WebUtil.getIpAddress());
         webLog.setBasePath(urlStr.substring(0, urlStr.length() - uriStr.length()));
         webLog.setMethod(request.getMethod());
         webLog.setClassMethod(className + "." + method.getName());
-        Object parameter = getParameter(method, joinPoint.getArgs());
-        try {
-            // 防止某些对象无法转json导致程序报错
-            mapper.writeValueAsString(parameter);
-            webLog.setParameter(parameter);
-        } catch (JsonProcessingException ignored) {
-        }
+        // 在请求线程中生成快照, 缓冲区中不保留参数对象的引用
+        webLog.setParameter(webLogDispatcher.snapshot(getParameter(method, joinPoint.getArgs())));
         long startTime = System.currentTimeMillis();
         Object result = joinPoint.proceed();
         long endTime = System.currentTimeMillis();
         webLog.setSpendTime((int) (endTime - startTime));
-        webLog.setResult(result);
-        log.info(mapper.writeValueAsString(webLog));
+        webLog.setResult(webLogDispatcher.snapshot(result));
+        if (!webLogDispatcher.publish(webLog)) {
+            log.debug("web日志缓冲区已满, 丢弃日志: {}", webLog.getClassMethod());
+        }
         return result;
     }
 
@@ -106,7 +112,7 @@ public class WebLogAspect {
         for (int i = 0; i < parameters.length; i++) {
             String typeName = parameters[i].getParameterizedType().getTypeName();
             String paramName = parameters[i].getName();
-            if (!classType().contains(typeName)) {
+            if (!IGNORED_TYPES.contains(typeName)) {
                 //将RequestBody注解修饰的参数作为请求参数
                 RequestBody requestBody = parameters[i].getAnnotation(RequestBody.class);
                 if (requestBody != null) {
@@ -174,19 +180,4 @@ public class WebLogAspect {
         return map;
     }
 
-    /**
-     * 包含了不获取参数的参数类型的集合
-     *
-     * @return {@link List<String>}
-     */
-    private static List<String> classType() {
-        return new ArrayList<String>() {{
-            add(Model.class.getName());
-            add(HttpServletRequest.class.getName());
-            add(HttpServletResponse.class.getName());
-            add(ServletResponse.class.getName());
-            add(ServletResponse.class.getName());
-        }};
-    }
-
 }
@@ -0,0 +1,34 @@
+package com.cgp.common.autoconfigure;
+
+import com.cgp.common.queue.MicrometerRedisMqMetrics;
+import com.cgp.common.queue.RedisMq;
+import com.cgp.common.queue.RedisMqMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 延迟队列监控指标自动配置类
+ * 引入 micrometer-core (通常随 spring-boot-starter-actuator 引入) 时通过 MeterRegistry 发布队列指标
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(MeterRegistry.class)
+@ConditionalOnProperty(prefix = "manaphy", name = "redis", havingValue = "true", matchIfMissing = true)
+@AutoConfigureAfter(name = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
+public class RedisMqMetricsAutoConfigure {
+
+    @Bean
+    @ConditionalOnBean(MeterRegistry.class)
+    @ConditionalOnMissingBean(RedisMqMetrics.class)
+    public RedisMqMetrics redisMqMetrics(MeterRegistry registry, RedisMq redisMq) {
+        return new MicrometerRedisMqMetrics(registry, redisMq);
+    }
+}
@@ -1,7 +1,12 @@
 package com.cgp.common.autoconfigure;
 
 import com.alibaba.fastjson.support.spring.GenericFastJsonRedisSerializer;
+import com.cgp.common.constant.RedisMqProperties;
+import com.cgp.common.entity.RedisMessage;
+import com.cgp.common.queue.RedisMessageSerializer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -10,7 +15,9 @@ import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.cache.RedisCacheWriter;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import javax.annotation.Resource;
@@ -23,6 +30,7 @@ import javax.annotation.Resource;
  */
 @Configuration
 @ConditionalOnProperty(prefix = "manaphy", name = "redis", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(RedisMqProperties.class)
 public class RedisServiceAutoConfigure {
 
     @Resource
@@ -75,4 +83,37 @@ public class RedisServiceAutoConfigure {
         return redisTemplate;
     }
 
+    /**
+     * 消息队列使用的redisTemplate 按 manaphy.mq.codec 选择消息池的序列化方式
+     *
+     * @param properties 消息队列属性
+     * @return {@link RedisTemplate}
+     */
+    @Bean(name = "redisMessageTemplate")
+    public RedisTemplate<String, RedisMessage> redisMessageTemplate(RedisMqProperties properties) {
+        RedisSerializer<?> valueSerializer = properties.getCodec() == RedisMqProperties.Codec.BINARY
+                ? new RedisMessageSerializer(properties.getCodecGroups(), properties.getCompressThreshold())
+                : redisSerializer;
+        RedisTemplate<String, RedisMessage> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(redisConnectionFactory);
+        redisTemplate.setValueSerializer(valueSerializer);
+        redisTemplate.setHashValueSerializer(valueSerializer);
+        redisTemplate.setKeySerializer(keyRedisSerializer);
+        redisTemplate.setHashKeySerializer(keyRedisSerializer);
+        return redisTemplate;
+    }
+
+    /**
+     * Redis订阅监听容器 用于延迟队列的消息到达通知
+     *
+     * @return {@link RedisMessageListenerContainer}
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public RedisMessageListenerContainer redisMessageListenerContainer() {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        return container;
+    }
+
 }
@@ -0,0 +1,63 @@
+package com.cgp.common.autoconfigure;
+
+import com.cgp.common.constant.WebLogProperties;
+import com.cgp.common.weblog.FileSpoolWebLogSink;
+import com.cgp.common.weblog.LoggerWebLogSink;
+import com.cgp.common.weblog.RedisListWebLogSink;
+import com.cgp.common.weblog.WebLogDispatcher;
+import com.cgp.common.weblog.WebLogSink;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.stream.Collectors;
+
+/**
+ * 统一日志输出自动配置类
+ * 默认输出到日志文件, 配置 `manaphy.log.spool-dir` 时同时写入本地分段文件,
+ * 配置 `manaphy.log.redis-key` 时同时写入Redis list, 也可以自定义 {@link WebLogSink} bean.
+ * 输出目标由分发器在输出完剩余日志后关闭, 不由容器关闭
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Configuration(proxyBeanMethods = false)
+@AutoConfigureAfter(RedisAutoConfiguration.class)
+@EnableConfigurationProperties(WebLogProperties.class)
+@ConditionalOnProperty(prefix = "manaphy", name = "weblog", havingValue = "true", matchIfMissing = true)
+public class WebLogAutoConfigure {
+
+    @Bean(destroyMethod = "")
+    @ConditionalOnProperty(prefix = "manaphy.log", name = "logger", havingValue = "true", matchIfMissing = true)
+    public LoggerWebLogSink loggerWebLogSink() {
+        return new LoggerWebLogSink();
+    }
+
+    @Bean(destroyMethod = "")
+    @ConditionalOnProperty(prefix = "manaphy.log", name = "spool-dir")
+    public FileSpoolWebLogSink fileSpoolWebLogSink(WebLogProperties properties) {
+        return new FileSpoolWebLogSink(properties.getSpoolDir(), properties.getSpoolSegmentSize(),
+                properties.getSpoolSegments());
+    }
+
+    @Bean(destroyMethod = "")
+    @ConditionalOnBean(StringRedisTemplate.class)
+    @ConditionalOnProperty(prefix = "manaphy.log", name = "redis-key")
+    public RedisListWebLogSink redisListWebLogSink(StringRedisTemplate stringRedisTemplate, WebLogProperties properties) {
+        return new RedisListWebLogSink(stringRedisTemplate, properties.getRedisKey(), properties.getRedisMaxLength());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public WebLogDispatcher webLogDispatcher(ObjectProvider<WebLogSink> sinks, WebLogProperties properties) {
+        return new WebLogDispatcher(sinks.orderedStream().collect(Collectors.toList()), properties.getBufferSize(),
+                properties.getWorkers(), properties.getBatchSize(), properties.getMaxFieldLength());
+    }
+}
@@ -0,0 +1,112 @@
+package com.cgp.common.constant;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis消息队列属性
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Getter
+@Setter
+@ConfigurationProperties("manaphy.mq")
+public class RedisMqProperties {
+    /**
+     * 每个队列组的消费线程数
+     */
+    private int concurrency = 1;
+    /**
+     * 每个队列组的内存缓冲区大小
+     */
+    private int bufferSize = 256;
+    /**
+     * 单次从Redis认领的最大消息数
+     */
+    private int batchSize = 64;
+    /**
+     * 缓冲区已满或认领失败时的重试间隔 单位:毫秒
+     */
+    private long minIdleInterval = 50;
+    /**
+     * 队列为空时的最长等待时间 单位:毫秒
+     * 消费者会等待到队列中最早的消息到期, 期间有更早的消息写入时由通知频道提前唤醒, 该值只是丢失通知时的兜底
+     */
+    private long maxIdleInterval = 10000;
+    /**
+     * 关闭时等待缓冲区消息消费完成的最长时间 单位:毫秒
+     */
+    private long shutdownTimeout = 10000;
+    /**
+     * 最大消费次数 达到后消息移入死信队列 Message:Dead:{group}
+     */
+    private int maxAttempts = 5;
+    /**
+     * 消费失败后首次重试的延迟 单位:毫秒, 之后每次失败翻倍
+     */
+    private long retryBaseDelay = 1000;
+    /**
+     * 消费失败重试的最大延迟 单位:毫秒
+     */
+    private long retryMaxDelay = 10 * 60 * 1000;
+    /**
+     * 本地时间轮阈值 单位:毫秒, 0表示不启用
+     * 本节点已注册消费者的队列组中, 延迟不超过该值的消息只保存在本地时间轮中到期直接投递, 不写入Redis.
+     * 节点关闭时未到期的消息会写回Redis, 但进程异常退出时这部分消息会丢失
+     */
+    private long localTierThreshold = 0;
+    /**
+     * 本地时间轮每格时间 单位:毫秒
+     */
+    private long localTierTick = 1;
+    /**
+     * 队列组默认分片数
+     */
+    private int defaultShards = 1;
+    /**
+     * 各队列组的分片数 key为队列组, 未配置的组使用 defaultShards.
+     * 分片数决定消息所在的key, 只能在队列为空时修改
+     */
+    private Map<String, Integer> shards = new HashMap<>();
+    /**
+     * Stream消息队列的消费组名称 同一消费组内的节点共同分担消息
+     */
+    private String streamGroup = "manaphy-mq";
+    /**
+     * Stream消息超过该时间未确认时可被其他消费者重新认领 单位:毫秒
+     */
+    private long streamClaimIdle = 60000;
+    /**
+     * 消息池的序列化方式
+     */
+    private Codec codec = Codec.JSON;
+    /**
+     * 二进制序列化的队列组字典 按序号保存队列组名称, 已有消息依赖序号, 只能在末尾追加
+     */
+    private List<String> codecGroups = new ArrayList<>();
+    /**
+     * 二进制序列化时消息体的LZ4压缩阈值 单位:字节, 0表示不压缩, 需要引入 org.lz4:lz4-java
+     */
+    private int compressThreshold = 1024;
+
+    /**
+     * 序列化方式
+     */
+    public enum Codec {
+        /**
+         * 与redisTemplate相同的JSON格式
+         */
+        JSON,
+        /**
+         * 紧凑二进制格式 可以读取JSON格式写入的消息
+         */
+        BINARY
+    }
+}
@@ -0,0 +1,58 @@
+package com.cgp.common.constant;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 统一日志输出属性
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Getter
+@Setter
+@ConfigurationProperties("manaphy.log")
+public class WebLogProperties {
+    /**
+     * 环形缓冲区大小 会向上取整为2的幂, 缓冲区已满时丢弃新的日志
+     */
+    private int bufferSize = 8192;
+    /**
+     * 后台序列化与输出日志的线程数
+     */
+    private int workers = 1;
+    /**
+     * 单次批量输出的最大日志数
+     */
+    private int batchSize = 256;
+    /**
+     * 请求参数与返回结果的最大长度 超过时截断为字符串
+     * 缓冲区中最多保留 bufferSize 条日志, 每条日志的参数与结果都不超过该长度
+     */
+    private int maxFieldLength = 4096;
+    /**
+     * 是否输出到日志文件(通过slf4j)
+     */
+    private boolean logger = true;
+    /**
+     * 本地分段文件目录 为空时不输出
+     */
+    private String spoolDir;
+    /**
+     * 单个分段文件的大小上限 单位:字节
+     */
+    private long spoolSegmentSize = 64 * 1024 * 1024;
+    /**
+     * 保留的分段文件数量
+     */
+    private int spoolSegments = 10;
+    /**
+     * Redis list的key 为空时不输出
+     */
+    private String redisKey;
+    /**
+     * Redis list保留的最大日志数 0表示不限制
+     */
+    private long redisMaxLength = 100000;
+}
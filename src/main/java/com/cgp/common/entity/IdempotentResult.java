@@ -0,0 +1,24 @@
+package com.cgp.common.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 幂等请求保存的返回结果
+ * 返回结果包装后保存, 与处理中标记区分, 返回值本身是任意字符串时也不会被误认为处理中
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Data
+@NoArgsConstructor
+public class IdempotentResult {
+    /**
+     * 第一次请求的返回结果 可以为null
+     */
+    private Object value;
+
+    public IdempotentResult(Object value) {
+        this.value = value;
+    }
+}
@@ -34,7 +34,10 @@ public class RedisMessage {
 
     /**
      * 消息存活时间 单位:秒
+     *
+     * @deprecated 消息池改为hash后不再按消息设置过期时间, 该字段不再生效, 只为兼容已有的消息数据而保留
      */
+    @Deprecated
     @NonNull
     private long ttl;
     /**
@@ -46,4 +49,8 @@ public class RedisMessage {
      * 用来消除时间的影响
      */
     private long createTime;
+    /**
+     * 已消费失败的次数
+     */
+    private int attempts;
 }
@@ -0,0 +1,18 @@
+package com.cgp.common.enums;
+
+/**
+ * 自适应并发限流算法
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public enum AdaptiveLimitAlgorithm {
+    /**
+     * 梯度算法 比较短期与长期平均响应时间, 响应变慢时按比例降低并发上限, 响应平稳时缓慢提高
+     */
+    GRADIENT,
+    /**
+     * 加性增乘性减 出现超时时按比例降低并发上限, 否则每个采样窗口加一
+     */
+    AIMD
+}
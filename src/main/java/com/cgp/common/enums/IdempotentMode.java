@@ -0,0 +1,18 @@
+package com.cgp.common.enums;
+
+/**
+ * 幂等提交的判重方式
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public enum IdempotentMode {
+    /**
+     * 本地判重 只适用于单机部署, 重复请求直接拒绝
+     */
+    LOCAL,
+    /**
+     * Redis判重 集群内生效, 保存第一次请求的返回结果, 重复请求等待并返回该结果
+     */
+    REDIS
+}
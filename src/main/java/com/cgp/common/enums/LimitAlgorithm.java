@@ -0,0 +1,26 @@
+package com.cgp.common.enums;
+
+/**
+ * 接口防刷限流算法
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public enum LimitAlgorithm {
+    /**
+     * 固定窗口 从第一次访问开始的cycle周期内最多访问frequency次, 超过后在expireTime内无法继续访问
+     */
+    FIXED_WINDOW,
+    /**
+     * 滑动窗口日志 记录每次访问的时间, 任意cycle周期内最多访问frequency次, 精确但每次访问占用一条记录
+     */
+    SLIDING_LOG,
+    /**
+     * 滑动窗口计数 按上一个窗口的计数加权估算当前周期内的访问次数, 只占用常数空间
+     */
+    SLIDING_WINDOW,
+    /**
+     * 令牌桶 桶容量为frequency, 每cycle周期补满一次, 允许一定的突发访问
+     */
+    TOKEN_BUCKET
+}
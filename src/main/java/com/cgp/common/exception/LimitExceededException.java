@@ -0,0 +1,30 @@
+package com.cgp.common.exception;
+
+import lombok.Getter;
+
+/**
+ * 接口限流异常
+ * 携带触发限流的规则序号与需要等待的时间
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Getter
+public class LimitExceededException extends FrequentRequestsException {
+
+    /**
+     * 触发限流的规则在 {@link com.cgp.common.annotation.Limiter#rules()} 中的序号, 单条规则时为0
+     */
+    private final int ruleIndex;
+
+    /**
+     * 需要等待的时间 单位:毫秒
+     */
+    private final long retryAfter;
+
+    public LimitExceededException(String message, int ruleIndex, long retryAfter) {
+        super(message);
+        this.ruleIndex = ruleIndex;
+        this.retryAfter = retryAfter;
+    }
+}
@@ -1,16 +1,20 @@
 package com.cgp.common.handler;
 
 import com.cgp.common.entity.ApiResult;
+import com.cgp.common.enums.ResultCode;
 import com.cgp.common.exception.CustomException;
 import com.cgp.common.exception.FrequentRequestsException;
+import com.cgp.common.exception.LimitExceededException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
 import org.springframework.validation.BindException;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.ValidationException;
 import java.util.HashMap;
 import java.util.Map;
@@ -47,6 +51,19 @@ public class GlobalExceptionHandler {
         return ApiResult.exception(e.getMessage());
     }
 
+    /**
+     * 处理接口限流异常 返回触发限流的规则与需要等待的时间, 并设置Retry-After响应头
+     */
+    @ExceptionHandler(LimitExceededException.class)
+    public ApiResult handleLimitExceededException(LimitExceededException e, HttpServletResponse response) {
+        log.error("接口限流异常:{}, 规则:{}, 等待:{}ms", e.getMessage(), e.getRuleIndex(), e.getRetryAfter());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf((e.getRetryAfter() + 999) / 1000));
+        Map<String, Object> data = new HashMap<>(4);
+        data.put("ruleIndex", e.getRuleIndex());
+        data.put("retryAfter", e.getRetryAfter());
+        return ApiResult.result(ResultCode.EXCEPTION.getCode(), e.getMessage(), data);
+    }
+
     /**
      * 处理空指针异常
      */
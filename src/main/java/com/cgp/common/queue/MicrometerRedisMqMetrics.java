@@ -0,0 +1,115 @@
+package com.cgp.common.queue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于Micrometer的延迟队列监控指标
+ * <ul>
+ *     <li>redis.mq.depth 队列中的消息数(各分片ZCARD之和)</li>
+ *     <li>redis.mq.lag 最早的到期消息已等待的时间, 没有到期消息时为0</li>
+ *     <li>redis.mq.enqueued / redis.mq.consumed / redis.mq.failed / redis.mq.dead 消息计数, 速率由监控系统计算</li>
+ *     <li>redis.mq.execute 消息执行耗时直方图</li>
+ * </ul>
+ * 所有指标以 group 标签区分队列组, 队列组第一次出现时注册
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Slf4j
+public class MicrometerRedisMqMetrics implements RedisMqMetrics {
+
+    private final MeterRegistry registry;
+    private final RedisMq redisMq;
+    private final Map<String, GroupMeters> meters = new ConcurrentHashMap<>();
+
+    public MicrometerRedisMqMetrics(MeterRegistry registry, RedisMq redisMq) {
+        this.registry = registry;
+        this.redisMq = redisMq;
+    }
+
+    @Override
+    public void enqueued(String group, int count) {
+        getMeters(group).enqueued.increment(count);
+    }
+
+    @Override
+    public void executed(String group, long nanos, boolean success) {
+        GroupMeters groupMeters = getMeters(group);
+        groupMeters.execute.record(nanos, TimeUnit.NANOSECONDS);
+        (success ? groupMeters.consumed : groupMeters.failed).increment();
+    }
+
+    @Override
+    public void dead(String group) {
+        getMeters(group).dead.increment();
+    }
+
+    private GroupMeters getMeters(String group) {
+        GroupMeters groupMeters = meters.get(group);
+        return groupMeters != null ? groupMeters : meters.computeIfAbsent(group, GroupMeters::new);
+    }
+
+    private double depth(String group) {
+        try {
+            return redisMq.size(group);
+        } catch (Exception e) {
+            log.warn("RedisMq:{} 获取队列长度失败", group, e);
+            return Double.NaN;
+        }
+    }
+
+    private double lag(String group) {
+        try {
+            Long next = redisMq.nextScore(group);
+            return next == null ? 0 : Math.max(System.currentTimeMillis() - next, 0);
+        } catch (Exception e) {
+            log.warn("RedisMq:{} 获取最早消费时间失败", group, e);
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * 单个队列组的指标
+     */
+    private class GroupMeters {
+        private final Counter enqueued;
+        private final Counter consumed;
+        private final Counter failed;
+        private final Counter dead;
+        private final Timer execute;
+
+        GroupMeters(String group) {
+            this.enqueued = counter("redis.mq.enqueued", "写入队列的消息数", group);
+            this.consumed = counter("redis.mq.consumed", "执行成功的消息数", group);
+            this.failed = counter("redis.mq.failed", "执行失败的消息数", group);
+            this.dead = counter("redis.mq.dead", "移入死信队列的消息数", group);
+            this.execute = Timer.builder("redis.mq.execute")
+                    .description("消息执行耗时")
+                    .tag("group", group)
+                    .publishPercentileHistogram()
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(registry);
+            Gauge.builder("redis.mq.depth", group, MicrometerRedisMqMetrics.this::depth)
+                    .description("队列中的消息数")
+                    .tag("group", group)
+                    .register(registry);
+            TimeGauge.builder("redis.mq.lag", group, TimeUnit.MILLISECONDS, MicrometerRedisMqMetrics.this::lag)
+                    .description("最早的到期消息已等待的时间")
+                    .tag("group", group)
+                    .register(registry);
+        }
+
+        private Counter counter(String name, String description, String group) {
+            return Counter.builder(name).description(description).tag("group", group).register(registry);
+        }
+    }
+}
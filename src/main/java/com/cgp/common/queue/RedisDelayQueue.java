@@ -1,18 +1,29 @@
 package com.cgp.common.queue;
 
+import com.cgp.common.constant.RedisMqProperties;
 import com.cgp.common.entity.RedisMessage;
 import com.cgp.common.service.RedisService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 import org.springframework.validation.annotation.Validated;
 
 import javax.annotation.Resource;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * redis延迟队列
@@ -22,17 +33,32 @@ import java.util.UUID;
  */
 @Slf4j
 @Component
-public class RedisDelayQueue {
+@ConditionalOnProperty(prefix = "manaphy", name = "redis", havingValue = "true", matchIfMissing = true)
+public class RedisDelayQueue implements SmartInitializingSingleton {
+    /**
+     * 消费失败的消息写回Redis的最大尝试次数
+     */
+    private static final int WRITE_BACK_ATTEMPTS = 5;
+
     @Resource
     private RedisMq redisMq;
 
     @Resource
     private RedisService redisService;
 
-    @Resource
+    @Resource(name = "redisMessageTemplate")
     private RedisTemplate<String, RedisMessage> redisTemplate;
 
-    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    @Resource
+    private RedisMqProperties properties;
+
+    @Resource
+    private ObjectProvider<RedisMqContainer> containerProvider;
+
+    @Resource
+    private ObjectProvider<RedisMqMetrics> metricsProvider;
+
+    private volatile RedisMqMetrics metrics;
 
     /**
      * 消息生产者
@@ -41,18 +67,48 @@ public class RedisDelayQueue {
      */
     public void sendMessage(@Validated RedisMessage message) {
         Assert.notNull(message, "消息不能为空");
-        // 将有效信息放入消息队列和消息池中
-        message.setId(UUID.randomUUID().toString());
-        long delayTime = message.getCreateTime() + message.getDelay() * 1000;
+        sendMessages(Collections.singletonList(message));
+    }
+
+    /**
+     * 批量消息生产者
+     * 整批消息的消息池与延迟队列写入在一次管道往返中完成
+     *
+     * @param messages 消息
+     */
+    public void sendMessages(Collection<RedisMessage> messages) {
+        Assert.notEmpty(messages, "消息不能为空");
+        RedisMqContainer container = containerProvider.getIfAvailable();
+        // 将有效信息放入消息队列和消息池中, 短延迟消息优先放入本地时间轮
+        List<RedisMessage> remote = new ArrayList<>(messages.size());
+        Map<String, Integer> local = new HashMap<>(4);
+        for (RedisMessage message : messages) {
+            Assert.notNull(message, "消息不能为空");
+            message.setId(UUID.randomUUID().toString());
+            if (container != null && container.offerLocal(message)) {
+                local.merge(message.getGroup(), 1, Integer::sum);
+            } else {
+                remote.add(message);
+            }
+        }
+        RedisMqMetrics metrics = getMetrics();
+        local.forEach(metrics::enqueued);
+        if (remote.isEmpty()) {
+            return;
+        }
         try {
-            // 将消息放入消息池
-            redisMq.addMsgPool(message);
-            // 将消息加入延迟队列
-            redisMq.addMsg(RedisMq.QUEUE_NAME + message.getGroup(), message.getId(), delayTime);
-            log.info("RedisMq发送消费信息{}，当前时间:{},消费时间预计为:{}", message.getBody(), sdf.format(new Date()), sdf.format(delayTime));
+            redisMq.addMsgBatch(remote);
+            log.debug("RedisMq发送{}条消息", remote.size());
         } catch (Exception e) {
-            log.info("RedisMq 消息发送失败，当前时间:{}", new Date());
+            log.error("RedisMq 消息发送失败，消息数:{}", remote.size(), e);
+            return;
+        }
+        // 写入成功后才计入入队数
+        Map<String, Integer> counts = new HashMap<>(4);
+        for (RedisMessage message : remote) {
+            counts.merge(message.getGroup(), 1, Integer::sum);
         }
+        counts.forEach(metrics::enqueued);
     }
 
     /**
@@ -62,38 +118,149 @@ public class RedisDelayQueue {
      * @param execute 消息执行类
      */
     public void monitor(RedisMqExecute execute) {
-        String queueName = RedisMq.QUEUE_NAME + execute.getQueueName();
+        String group = execute.getQueueName();
+        redisMq.ensureMigrated(group);
+        for (int shard = 0, count = redisMq.getShardCount(group); shard < count; shard++) {
+            monitor(execute, redisMq.queueKey(group, shard), redisMq.poolKey(group, shard));
+        }
+    }
+
+    private void monitor(RedisMqExecute execute, String queueName, String poolKey) {
         // 从延迟队列中获取已超时的消息
         Set<String> set = redisService.zRangeByScore(queueName, 0, System.currentTimeMillis());
-        if (set.size() == 0) {
-            return;
-        }
-        long current = System.currentTimeMillis();
         for (String id : set) {
-            long score = redisService.zScore(queueName, id).longValue();
-            if (current < score) {
-                return;
+            // 先从队列中移除, 移除失败说明已被其他节点消费
+            Long removed = redisService.zRem(queueName, id);
+            if (removed == null || removed == 0) {
+                continue;
             }
             // 已超时的消息拿出来消费
-            RedisMessage message = null;
-            String msgPool = RedisMq.MSG_POOL + execute.getQueueName();
-            try {
-                message = redisTemplate.opsForValue().get(msgPool + id);
-                if (message == null) {
-                    return;
+            HashOperations<String, String, RedisMessage> pool = redisTemplate.opsForHash();
+            RedisMessage message = pool.get(poolKey, id);
+            pool.delete(poolKey, id);
+            if (message == null) {
+                continue;
+            }
+            log.debug("RedisMq:{},获取消息成功", message.getBody());
+            consume(execute, message);
+        }
+    }
+
+    /**
+     * 消息消费者(批量认领模式)
+     * 通过一次脚本调用原子地认领最多 batchSize 条到期消息, 多节点同时消费同一组时不会重复消费
+     *
+     * @param execute   消息执行类
+     * @param batchSize 单次最多认领的消息数
+     * @return 本次处理的消息数
+     */
+    public int monitor(RedisMqExecute execute, int batchSize) {
+        List<RedisMessage> messages = redisMq.claimMsg(execute.getQueueName(), batchSize);
+        for (RedisMessage message : messages) {
+            consume(execute, message);
+        }
+        return messages.size();
+    }
+
+    /**
+     * 消费一条已出队的消息
+     * 消费失败时保留原消息id按指数退避重新放回队列, 达到最大消费次数后移入死信队列, 写回Redis失败时重试
+     *
+     * @param execute 消息执行类
+     * @param message 消息
+     */
+    void consume(RedisMqExecute execute, RedisMessage message) {
+        RedisMqMetrics metrics = getMetrics();
+        long start = System.nanoTime();
+        try {
+            execute.execute(message);
+            metrics.executed(message.getGroup(), System.nanoTime() - start, true);
+        } catch (Exception e) {
+            metrics.executed(message.getGroup(), System.nanoTime() - start, false);
+            int attempts = message.getAttempts() + 1;
+            message.setAttempts(attempts);
+            if (attempts >= properties.getMaxAttempts()) {
+                log.error("RedisMq:{} 第{}次消费失败，移入死信队列", message.getId(), attempts, e);
+                if (writeBack(message, () -> redisMq.addDead(message))) {
+                    metrics.dead(message.getGroup());
                 }
-                log.info("RedisMq:{},获取消息成功,时间为:{}", message.getBody(), sdf.format(new Date()));
-                // 处理获取的消息
-                execute.execute(message);
+                return;
+            }
+            long retryAt = System.currentTimeMillis() + getRetryDelay(attempts);
+            log.warn("RedisMq:{} 第{}次消费失败，重新回到队列", message.getId(), attempts, e);
+            writeBack(message, () -> redisMq.addMsgBatch(Collections.singletonList(message), m -> retryAt));
+        }
+    }
+
+    /**
+     * 将消费失败的消息写回Redis
+     * 认领时消息已从队列和消息池中删除, 写入失败时按间隔翻倍重试, 仍然失败时记录完整消息以便人工恢复
+     *
+     * @param message 消息
+     * @param write   写入操作
+     * @return 是否写入成功
+     */
+    private boolean writeBack(RedisMessage message, Runnable write) {
+        long interval = properties.getMinIdleInterval();
+        for (int i = 1; ; i++) {
+            try {
+                write.run();
+                return true;
             } catch (Exception e) {
-                e.printStackTrace();
-                log.info("消费异常，重新回到队列");
-                sendMessage(message);
-            } finally {
-                redisMq.delMsg(queueName, id);
-                redisMq.delMsgPool(execute.getQueueName(), id);
+                if (i >= WRITE_BACK_ATTEMPTS) {
+                    log.error("RedisMq:{} 消息写回失败，消息已丢失，group:{}，body:{}",
+                            message.getId(), message.getGroup(), message.getBody(), e);
+                    return false;
+                }
+                log.warn("RedisMq:{} 第{}次消息写回失败，{}毫秒后重试", message.getId(), i, interval, e);
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(interval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("RedisMq:{} 消息写回被中断，消息已丢失，group:{}，body:{}",
+                        message.getId(), message.getGroup(), message.getBody());
+                return false;
+            }
+            interval <<= 1;
+        }
+    }
+
+    /**
+     * 所有单例创建完成后指标bean已就绪, 此时确定最终使用的指标
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (metrics == null) {
+            metrics = metricsProvider.getIfAvailable(() -> RedisMqMetrics.NOOP);
+        }
+    }
+
+    /**
+     * 获取监控指标 容器启动完成前指标bean可能尚未创建, 此时本次使用NOOP, 不缓存
+     */
+    private RedisMqMetrics getMetrics() {
+        RedisMqMetrics current = metrics;
+        if (current == null) {
+            current = metricsProvider.getIfAvailable();
+            if (current == null) {
+                return RedisMqMetrics.NOOP;
             }
+            metrics = current;
         }
+        return current;
+    }
 
+    /**
+     * 计算重试延迟 基础延迟按失败次数翻倍, 不超过最大延迟, 并在后一半区间内随机以错开同时失败的消息
+     *
+     * @param attempts 已失败次数
+     * @return 重试延迟 单位:毫秒
+     */
+    private long getRetryDelay(int attempts) {
+        long max = properties.getRetryMaxDelay();
+        long delay = properties.getRetryBaseDelay() << Math.min(attempts - 1, 30);
+        delay = delay <= 0 || delay > max ? max : delay;
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
     }
 }
@@ -0,0 +1,248 @@
+package com.cgp.common.queue;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.support.spring.GenericFastJsonRedisSerializer;
+import com.cgp.common.entity.RedisMessage;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.util.ClassUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息的紧凑二进制序列化器
+ * 格式: 魔数 + 标志位 + 各字段, 字符串为 长度+1 的变长整数加UTF-8字节(0表示null), 数值为zigzag变长整数.
+ * 队列组可以通过字典序号代替名称, 消息体超过阈值且引入了 lz4-java 时使用LZ4压缩.
+ * 反序列化时不以魔数开头的数据按原有的JSON格式读取, 切换序列化方式前写入的消息仍可正常消费
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public class RedisMessageSerializer implements RedisSerializer<RedisMessage> {
+
+    /**
+     * 魔数 JSON数据总是以 '{' 开头, 不会与之冲突
+     */
+    private static final byte MAGIC = (byte) 0xB1;
+    /**
+     * 队列组使用字典序号
+     */
+    private static final int FLAG_GROUP_DICT = 1;
+    /**
+     * 消息体经过LZ4压缩
+     */
+    private static final int FLAG_BODY_LZ4 = 1 << 1;
+
+    private static final boolean LZ4_PRESENT = ClassUtils.isPresent("net.jpountz.lz4.LZ4Factory",
+            RedisMessageSerializer.class.getClassLoader());
+
+    private final GenericFastJsonRedisSerializer jsonSerializer = new GenericFastJsonRedisSerializer();
+    private final List<String> groups;
+    private final Map<String, Integer> groupIndex;
+    private final int compressThreshold;
+
+    public RedisMessageSerializer() {
+        this(Collections.emptyList(), 0);
+    }
+
+    /**
+     * @param groups            队列组字典, 已写入的消息依赖序号, 只能在末尾追加
+     * @param compressThreshold 消息体压缩阈值 单位:字节, 0表示不压缩
+     */
+    public RedisMessageSerializer(List<String> groups, int compressThreshold) {
+        this.groups = groups;
+        this.groupIndex = new HashMap<>(groups.size() * 2);
+        for (int i = 0; i < groups.size(); i++) {
+            groupIndex.putIfAbsent(groups.get(i), i);
+        }
+        this.compressThreshold = LZ4_PRESENT ? compressThreshold : 0;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public byte[] serialize(RedisMessage message) throws SerializationException {
+        if (message == null) {
+            return new byte[0];
+        }
+        Integer index = message.getGroup() == null ? null : groupIndex.get(message.getGroup());
+        byte[] body = message.getBody() == null ? null : message.getBody().getBytes(StandardCharsets.UTF_8);
+        boolean compress = body != null && compressThreshold > 0 && body.length >= compressThreshold;
+        int flags = (index != null ? FLAG_GROUP_DICT : 0) | (compress ? FLAG_BODY_LZ4 : 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + (body == null ? 0 : body.length));
+        out.write(MAGIC);
+        out.write(flags);
+        if (index != null) {
+            writeVarLong(out, index);
+        } else {
+            writeString(out, message.getGroup());
+        }
+        writeString(out, message.getId());
+        writeVarLong(out, zigzag(message.getDelay()));
+        // ttl已不再生效, 为兼容已写入的二进制格式仍然保留
+        writeVarLong(out, zigzag(message.getTtl()));
+        writeVarLong(out, zigzag(message.getCreateTime()));
+        writeVarLong(out, zigzag(message.getAttempts()));
+        if (compress) {
+            byte[] compressed = Lz4.compress(body);
+            writeVarLong(out, body.length);
+            writeVarLong(out, compressed.length);
+            out.write(compressed, 0, compressed.length);
+        } else {
+            writeBytes(out, body);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public RedisMessage deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            return fromJson(bytes);
+        }
+        if (bytes.length < 2) {
+            throw new SerializationException("消息数据不完整, 长度: " + bytes.length);
+        }
+        Reader in = new Reader(bytes);
+        int flags = bytes[1];
+        RedisMessage message = new RedisMessage();
+        if ((flags & FLAG_GROUP_DICT) != 0) {
+            int index = (int) in.readVarLong();
+            if (index >= groups.size()) {
+                throw new SerializationException("未知的队列组字典序号: " + index);
+            }
+            message.setGroup(groups.get(index));
+        } else {
+            message.setGroup(in.readString());
+        }
+        message.setId(in.readString());
+        message.setDelay(unzigzag(in.readVarLong()));
+        message.setTtl(unzigzag(in.readVarLong()));
+        message.setCreateTime(unzigzag(in.readVarLong()));
+        message.setAttempts((int) unzigzag(in.readVarLong()));
+        if ((flags & FLAG_BODY_LZ4) != 0) {
+            if (!LZ4_PRESENT) {
+                throw new SerializationException("消息体经过LZ4压缩, 需要引入 org.lz4:lz4-java");
+            }
+            int length = (int) in.readVarLong();
+            int compressedLength = (int) in.readVarLong();
+            message.setBody(new String(Lz4.decompress(bytes, in.skip(compressedLength), length), StandardCharsets.UTF_8));
+        } else {
+            message.setBody(in.readString());
+        }
+        return message;
+    }
+
+    private RedisMessage fromJson(byte[] bytes) {
+        Object value = jsonSerializer.deserialize(bytes);
+        if (value == null || value instanceof RedisMessage) {
+            return (RedisMessage) value;
+        }
+        return JSON.parseObject(JSON.toJSONString(value), RedisMessage.class);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] value) {
+        if (value == null) {
+            out.write(0);
+            return;
+        }
+        writeVarLong(out, value.length + 1L);
+        out.write(value, 0, value.length);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 顺序读取二进制数据
+     */
+    private static class Reader {
+        private final byte[] bytes;
+        private int position = 2;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new SerializationException("消息数据不完整");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new SerializationException("变长整数格式错误");
+        }
+
+        String readString() {
+            int length = (int) readVarLong() - 1;
+            if (length < 0) {
+                return null;
+            }
+            return new String(bytes, skip(length), length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 跳过指定长度
+         *
+         * @return 跳过前的位置
+         */
+        int skip(int length) {
+            if (length > bytes.length - position) {
+                throw new SerializationException("消息数据不完整");
+            }
+            int start = position;
+            position += length;
+            return start;
+        }
+    }
+
+    /**
+     * LZ4压缩 单独放在内部类中, 未引入 lz4-java 时不会加载
+     */
+    private static class Lz4 {
+        private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+        private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+        static byte[] compress(byte[] data) {
+            return COMPRESSOR.compress(data);
+        }
+
+        static byte[] decompress(byte[] src, int offset, int length) {
+            return DECOMPRESSOR.decompress(src, offset, length);
+        }
+    }
+}
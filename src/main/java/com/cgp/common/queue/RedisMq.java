@@ -1,34 +1,193 @@
 package com.cgp.common.queue;
 
+import com.cgp.common.constant.RedisMqProperties;
 import com.cgp.common.entity.RedisMessage;
 import com.cgp.common.service.RedisService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.ToLongFunction;
 
 /**
  * Redis消息队列
+ * 消息id保存在zset队列中, 消息内容保存在消息池hash中, 字段为消息id.
+ * 队列组可以拆分为多个分片, 分片数为1时键为 Message:Queue:{group} 与 Message:Pool:{group},
+ * 大于1时第i个分片的键为 Message:Queue:{group:i} 与 Message:Pool:{group:i},
+ * 同一分片的队列与消息池通过hash tag落在同一个集群槽位, 不同分片分散到不同槽位.
+ * 旧版本 Message:Queue:group 与 Message:Pool:group+id 格式的消息在认领时迁移到新的键, 滚动升级期间
+ * 旧版本生产者仍可能写入旧格式的键, 因此每个节点按 {@link #LEGACY_CHECK_INTERVAL} 持续检查旧队列是否存在.
+ * 每个节点都会轮转认领所有分片, 不为节点分配固定的分片
  *
  * @author Manaphy
  * @date 2021/02/24
  */
+@Slf4j
 @Component
+@ConditionalOnProperty(prefix = "manaphy", name = "redis", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(RedisMqProperties.class)
 public class RedisMq {
     /**
-     * 消息池前缀，以此前缀加上传递的消息id作为key，以消息{@link RedisMessage}的消息对象作为值存储
+     * 消息池前缀，以此前缀加上队列组作为hash的key，字段为消息id，值为消息{@link RedisMessage}
+     * 消息池中的消息在被认领、删除或重放时移除, 不再按消息设置过期时间
+     * ({@link RedisMessage#getTtl()} 不再生效), 写入消息池但未写入队列的消息不会被自动清理
      */
     public static final String MSG_POOL = "Message:Pool:";
     /**
      * zset队列名称 queue
      */
     public static final String QUEUE_NAME = "Message:Queue:";
+    /**
+     * 消息到达通知频道前缀 生产者写入后以该前缀加队列组发布本批消息最早的消费时间
+     */
+    public static final String NOTIFY_CHANNEL = "Message:Notify:";
+    /**
+     * 死信队列前缀 zset保存超过最大消费次数的消息id, score为移入时间, 消息内容仍保存在消息池中.
+     * 与队列、消息池一样按分片使用hash tag, 即 Message:Dead:{group} 或 Message:Dead:{group:i}
+     */
+    public static final String DEAD_QUEUE = "Message:Dead:";
+    /**
+     * 检查旧格式队列的间隔 单位:毫秒
+     */
+    private static final long LEGACY_CHECK_INTERVAL = 1000;
+
+    /**
+     * 批量认领到期消息脚本
+     * 取出 score <= now 的前 limit 个id, 从队列中移除并返回其在消息池中的内容, 同时从消息池中删除
+     * KEYS[1]: 队列 KEYS[2]: 消息池 ARGV[1]: 当前时间 ARGV[2]: 最多认领数量
+     */
+    private static final String CLAIM_MSG_SCRIPT = "local ids = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) " +
+            "local result = {} " +
+            "for _, id in ipairs(ids) do " +
+            "redis.call('zrem', KEYS[1], id) " +
+            "local msg = redis.call('hget', KEYS[2], id) " +
+            "if msg then redis.call('hdel', KEYS[2], id) result[#result + 1] = msg end " +
+            "end " +
+            "return result";
+
+    /**
+     * 重放死信消息脚本
+     * 每条消息只有从死信队列中移除成功时才写回消息池并加入队列, 多个节点同时重放时同一条消息只会重放一次.
+     * 消息内容为空表示消息池中已不存在, 只从死信队列中移除
+     * KEYS[1]: 死信队列 KEYS[2]: 消息池 KEYS[3]: 队列 ARGV[1]: 消费时间 ARGV[2]: 通知频道 ARGV[3...]: 成对的消息id与消息内容
+     * 返回重放的消息数
+     */
+    private static final String REPLAY_DEAD_SCRIPT = "local replayed = 0 " +
+            "for i = 3, #ARGV, 2 do " +
+            "if redis.call('zrem', KEYS[1], ARGV[i]) == 1 and ARGV[i + 1] ~= '' then " +
+            "redis.call('hset', KEYS[2], ARGV[i], ARGV[i + 1]) " +
+            "redis.call('zadd', KEYS[3], ARGV[1], ARGV[i]) " +
+            "replayed = replayed + 1 " +
+            "end " +
+            "end " +
+            "if replayed > 0 then redis.call('publish', ARGV[2], ARGV[1]) end " +
+            "return replayed";
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CLAIM_MSG = new DefaultRedisScript<>(CLAIM_MSG_SCRIPT, List.class);
+    private static final RedisScript<Long> REPLAY_DEAD = new DefaultRedisScript<>(REPLAY_DEAD_SCRIPT, Long.class);
 
     @Resource
     private RedisService redisService;
-    @Resource
+    @Resource(name = "redisMessageTemplate")
     private RedisTemplate<String, RedisMessage> redisTemplate;
+    @Resource
+    private RedisMqProperties properties;
+
+    /**
+     * 认领消息时的起始分片 轮转使用避免总是优先消费同一个分片
+     */
+    private final AtomicInteger claimCursor = new AtomicInteger();
+
+    /**
+     * 各队列组下次检查旧格式队列的时间
+     */
+    private final Map<String, Long> legacyCheckAt = new ConcurrentHashMap<>();
+
+    /**
+     * 获取队列组的分片数
+     *
+     * @param group 消息队列组
+     * @return 分片数
+     */
+    public int getShardCount(String group) {
+        Integer shards = properties.getShards().get(group);
+        return Math.max(shards == null ? properties.getDefaultShards() : shards, 1);
+    }
+
+    /**
+     * 计算消息所在的分片
+     *
+     * @param group 消息队列组
+     * @param id    消息id
+     * @return 分片序号
+     */
+    public int shardOf(String group, String id) {
+        int count = getShardCount(group);
+        return count == 1 ? 0 : (id.hashCode() & Integer.MAX_VALUE) % count;
+    }
+
+    /**
+     * 获取分片的队列key
+     *
+     * @param group 消息队列组
+     * @param shard 分片序号
+     * @return 队列key
+     */
+    public String queueKey(String group, int shard) {
+        return QUEUE_NAME + shardTag(group, shard);
+    }
+
+    /**
+     * 获取分片的消息池key
+     *
+     * @param group 消息队列组
+     * @param shard 分片序号
+     * @return 消息池hash的key
+     */
+    public String poolKey(String group, int shard) {
+        return MSG_POOL + shardTag(group, shard);
+    }
+
+    /**
+     * 获取分片的死信队列key
+     *
+     * @param group 消息队列组
+     * @param shard 分片序号
+     * @return 死信队列key
+     */
+    public String deadKey(String group, int shard) {
+        return DEAD_QUEUE + shardTag(group, shard);
+    }
+
+    private String shardTag(String group, int shard) {
+        return getShardCount(group) == 1 ? "{" + group + "}" : "{" + group + ":" + shard + "}";
+    }
 
     /**
      * 存入消息池
@@ -39,8 +198,112 @@ public class RedisMq {
         if (message == null) {
             return;
         }
-        redisTemplate.opsForValue().setIfAbsent(MSG_POOL + message.getGroup() + message.getId(),
-                message, message.getTtl(), TimeUnit.DAYS);
+        int shard = shardOf(message.getGroup(), message.getId());
+        redisTemplate.opsForHash().putIfAbsent(poolKey(message.getGroup(), shard), message.getId(), message);
+    }
+
+    /**
+     * 批量存入消息池并加入延迟队列
+     * 所有 HSETNX 与 ZADD 命令在同一个管道中发送, 整批消息只需一次网络往返,
+     * 最后按队列组发布本批最早的消费时间, 唤醒正在等待的消费者
+     *
+     * @param messages 已设置id的消息
+     */
+    public void addMsgBatch(Collection<RedisMessage> messages) {
+        addMsgBatch(messages, RedisMq::getScore);
+    }
+
+    /**
+     * 批量存入消息池并按指定的消费时间加入延迟队列
+     *
+     * @param messages 已设置id的消息
+     * @param scorer   消费时间
+     */
+    @SuppressWarnings("unchecked")
+    public void addMsgBatch(Collection<RedisMessage> messages, ToLongFunction<RedisMessage> scorer) {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        RedisSerializer<String> keySerializer = redisTemplate.getStringSerializer();
+        RedisSerializer<RedisMessage> valueSerializer = (RedisSerializer<RedisMessage>) redisTemplate.getValueSerializer();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            Map<String, Long> earliest = new HashMap<>(4);
+            for (RedisMessage message : messages) {
+                long score = scorer.applyAsLong(message);
+                int shard = shardOf(message.getGroup(), message.getId());
+                byte[] id = keySerializer.serialize(message.getId());
+                connection.hSetNX(keySerializer.serialize(poolKey(message.getGroup(), shard)), id,
+                        valueSerializer.serialize(message));
+                connection.zAdd(keySerializer.serialize(queueKey(message.getGroup(), shard)), score, id);
+                earliest.merge(message.getGroup(), score, Math::min);
+            }
+            earliest.forEach((group, score) -> connection.publish(keySerializer.serialize(NOTIFY_CHANNEL + group),
+                    keySerializer.serialize(String.valueOf(score))));
+            return null;
+        });
+    }
+
+    /**
+     * 计算消息在延迟队列中的分数, 即预计消费时间
+     *
+     * @param message 消息
+     * @return 预计消费时间戳
+     */
+    public static long getScore(RedisMessage message) {
+        return message.getCreateTime() + message.getDelay() * 1000;
+    }
+
+    /**
+     * 获取队列中最早的消费时间
+     *
+     * @param group 消息队列组
+     * @return 所有分片中最早的消费时间戳, 队列为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public Long nextScore(String group) {
+        Long next = null;
+        for (Object result : pipelineShards(group, this::queueKey, (connection, key) -> connection.zRangeWithScores(key, 0, 0))) {
+            Set<TypedTuple<String>> head = (Set<TypedTuple<String>>) result;
+            if (head == null || head.isEmpty() || head.iterator().next().getScore() == null) {
+                continue;
+            }
+            long score = head.iterator().next().getScore().longValue();
+            next = next == null ? score : Math.min(next, score);
+        }
+        return next;
+    }
+
+    /**
+     * 队列中的消息数
+     *
+     * @param group 消息队列组
+     * @return 所有分片的消息数之和
+     */
+    public long size(String group) {
+        long size = 0;
+        for (Object result : pipelineShards(group, this::queueKey, RedisZSetCommands::zCard)) {
+            size += result == null ? 0 : (Long) result;
+        }
+        return size;
+    }
+
+    /**
+     * 在一个管道中对每个分片的key执行同一个命令
+     *
+     * @param group   消息队列组
+     * @param key     分片的key
+     * @param command 命令 参数为连接与序列化后的key
+     * @return 每个分片的结果
+     */
+    private List<Object> pipelineShards(String group, BiFunction<String, Integer, String> key,
+                                        BiConsumer<RedisConnection, byte[]> command) {
+        RedisSerializer<String> keySerializer = redisTemplate.getStringSerializer();
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int shard = 0, count = getShardCount(group); shard < count; shard++) {
+                command.accept(connection, keySerializer.serialize(key.apply(group, shard)));
+            }
+            return null;
+        }, keySerializer);
     }
 
     /**
@@ -49,7 +312,7 @@ public class RedisMq {
      * @param id id
      */
     public void delMsgPool(String group, String id) {
-        redisService.delete(MSG_POOL + group + id);
+        redisTemplate.opsForHash().delete(poolKey(group, shardOf(group, id)), id);
     }
 
     /**
@@ -73,4 +336,267 @@ public class RedisMq {
         redisService.zRem(key, id);
     }
 
+    /**
+     * 移入死信队列
+     *
+     * @param message 消息
+     */
+    @SuppressWarnings("unchecked")
+    public void addDead(RedisMessage message) {
+        RedisSerializer<String> keySerializer = redisTemplate.getStringSerializer();
+        RedisSerializer<RedisMessage> valueSerializer = (RedisSerializer<RedisMessage>) redisTemplate.getValueSerializer();
+        int shard = shardOf(message.getGroup(), message.getId());
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hSet(keySerializer.serialize(poolKey(message.getGroup(), shard)),
+                    keySerializer.serialize(message.getId()), valueSerializer.serialize(message));
+            connection.zAdd(keySerializer.serialize(deadKey(message.getGroup(), shard)), System.currentTimeMillis(),
+                    keySerializer.serialize(message.getId()));
+            return null;
+        });
+    }
+
+    /**
+     * 死信队列中的消息数
+     *
+     * @param group 消息队列组
+     * @return 消息数
+     */
+    public Long deadSize(String group) {
+        long size = 0;
+        for (Object result : pipelineShards(group, this::deadKey, RedisZSetCommands::zCard)) {
+            size += result == null ? 0 : (Long) result;
+        }
+        return size;
+    }
+
+    /**
+     * 查看死信队列中的消息, 按移入时间从早到晚排序
+     *
+     * @param group 消息队列组
+     * @param start 开始位置
+     * @param end   结束位置, -1查询所有
+     * @return 消息, 消息池中已不存在的消息不会返回
+     */
+    public List<RedisMessage> listDead(String group, long start, long end) {
+        List<String> ids = rangeDead(group, start, end);
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, RedisMessage> pool = multiGetMsgPool(group, ids);
+        List<RedisMessage> messages = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            RedisMessage message = pool.get(id);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 将死信队列中最早的消息重新放回延迟队列立即消费, 消费次数清零
+     * 每个分片由一次脚本调用完成 移出死信队列+写回消息池+加入队列, 多个节点同时重放时同一条消息只会重放一次
+     *
+     * @param group 消息队列组
+     * @param count 最多重放的消息数
+     * @return 实际重放的消息数
+     */
+    public int replayDead(String group, long count) {
+        if (count <= 0) {
+            return 0;
+        }
+        List<String> ids = rangeDead(group, 0, count - 1);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Map<String, RedisMessage> pool = multiGetMsgPool(group, ids);
+        Map<Integer, List<String>> shards = groupByShard(group, ids);
+        RedisSerializer<String> keySerializer = redisTemplate.getStringSerializer();
+        @SuppressWarnings("unchecked")
+        RedisSerializer<RedisMessage> valueSerializer = (RedisSerializer<RedisMessage>) redisTemplate.getValueSerializer();
+        byte[] now = keySerializer.serialize(String.valueOf(System.currentTimeMillis()));
+        byte[] channel = keySerializer.serialize(NOTIFY_CHANNEL + group);
+        int replayed = 0;
+        for (Map.Entry<Integer, List<String>> entry : shards.entrySet()) {
+            int shard = entry.getKey();
+            List<Object> args = new ArrayList<>(entry.getValue().size() * 2 + 2);
+            args.add(now);
+            args.add(channel);
+            for (String id : entry.getValue()) {
+                RedisMessage message = pool.get(id);
+                if (message != null) {
+                    message.setAttempts(0);
+                }
+                args.add(keySerializer.serialize(id));
+                // 消息池中已不存在的id只从死信队列中移除
+                args.add(message == null ? new byte[0] : valueSerializer.serialize(message));
+            }
+            List<String> keys = Arrays.asList(deadKey(group, shard), poolKey(group, shard), queueKey(group, shard));
+            Long result = redisTemplate.execute(REPLAY_DEAD, RedisSerializer.byteArray(),
+                    new GenericToStringSerializer<>(Long.class), keys, args.toArray());
+            replayed += result == null ? 0 : result.intValue();
+        }
+        return replayed;
+    }
+
+    /**
+     * 按移入时间从早到晚查询所有分片的死信消息id
+     *
+     * @param group 消息队列组
+     * @param start 开始位置
+     * @param end   结束位置, -1查询所有
+     * @return 消息id
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> rangeDead(String group, long start, long end) {
+        if (getShardCount(group) == 1) {
+            Set<String> ids = redisService.zRange(deadKey(group, 0), start, end);
+            return ids == null ? Collections.emptyList() : new ArrayList<>(ids);
+        }
+        // 每个分片取前 end+1 条, 合并排序后再截取
+        List<TypedTuple<String>> tuples = new ArrayList<>();
+        for (Object result : pipelineShards(group, this::deadKey,
+                (connection, key) -> connection.zRangeWithScores(key, 0, end))) {
+            if (result != null) {
+                tuples.addAll((Set<TypedTuple<String>>) result);
+            }
+        }
+        tuples.sort(Comparator.comparing(tuple -> tuple.getScore() == null ? 0 : tuple.getScore()));
+        List<String> ids = new ArrayList<>();
+        for (int i = (int) Math.min(start, tuples.size()); i < tuples.size() && (end < 0 || i <= end); i++) {
+            ids.add(tuples.get(i).getValue());
+        }
+        return ids;
+    }
+
+    private Map<Integer, List<String>> groupByShard(String group, Collection<String> ids) {
+        Map<Integer, List<String>> shards = new HashMap<>(4);
+        for (String id : ids) {
+            shards.computeIfAbsent(shardOf(group, id), shard -> new ArrayList<>()).add(id);
+        }
+        return shards;
+    }
+
+    /**
+     * 按分片批量读取消息池 每个分片一次HMGET
+     *
+     * @return key为消息id, 消息池中不存在的消息不包含在内
+     */
+    private Map<String, RedisMessage> multiGetMsgPool(String group, Collection<String> ids) {
+        HashOperations<String, String, RedisMessage> hashOperations = redisTemplate.opsForHash();
+        Map<String, RedisMessage> messages = new HashMap<>(ids.size() * 2);
+        groupByShard(group, ids).forEach((shard, fields) -> {
+            List<RedisMessage> values = hashOperations.multiGet(poolKey(group, shard), fields);
+            for (int i = 0; i < fields.size(); i++) {
+                if (values.get(i) != null) {
+                    messages.put(fields.get(i), values.get(i));
+                }
+            }
+        });
+        return messages;
+    }
+
+    /**
+     * 原子地认领到期消息
+     * 每个分片由一次脚本调用完成 出队+读取消息池+从消息池删除, 多个节点同时认领时同一条消息只会被一个节点拿到.
+     * 从轮转的起始分片开始依次认领, 直到达到数量上限或所有分片都已认领过
+     *
+     * @param group 消息队列组
+     * @param limit 最多认领数量
+     * @return 已认领的消息, 无到期消息时返回空集合
+     */
+    public List<RedisMessage> claimMsg(String group, int limit) {
+        ensureMigrated(group);
+        int count = getShardCount(group);
+        if (count == 1) {
+            return claimMsg(group, 0, limit);
+        }
+        List<RedisMessage> messages = new ArrayList<>();
+        int start = claimCursor.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < count && messages.size() < limit; i++) {
+            messages.addAll(claimMsg(group, (start + i) % count, limit - messages.size()));
+        }
+        return messages;
+    }
+
+    /**
+     * 原子地认领单个分片的到期消息
+     *
+     * @param group 消息队列组
+     * @param shard 分片序号
+     * @param limit 最多认领数量
+     * @return 已认领的消息
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<RedisMessage> claimMsg(String group, int shard, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<RedisMessage> messages = redisTemplate.execute(CLAIM_MSG, redisTemplate.getStringSerializer(),
+                (RedisSerializer) redisTemplate.getValueSerializer(), Arrays.asList(queueKey(group, shard), poolKey(group, shard)),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(limit));
+        return messages == null ? Collections.emptyList() : messages;
+    }
+
+    /**
+     * 将旧版本 Message:Queue:group 与 Message:Pool:group+id 格式的消息迁移到新的键
+     * 旧格式的队列与消息池不在同一个集群槽位, 无法由认领脚本处理. 每个id先从旧队列中移除,
+     * 移除成功的节点才写入新的键, 多个节点同时迁移时同一条消息只会迁移一次
+     *
+     * @param group 消息队列组
+     * @return 迁移的消息数
+     */
+    public int migrateLegacy(String group) {
+        String legacyQueue = QUEUE_NAME + group;
+        String legacyPool = MSG_POOL + group;
+        int count = 0;
+        while (true) {
+            Set<TypedTuple<String>> tuples = redisService.zRangeWithScores(legacyQueue, 0, 99);
+            if (tuples == null || tuples.isEmpty()) {
+                break;
+            }
+            List<RedisMessage> messages = new ArrayList<>(tuples.size());
+            Map<String, Long> scores = new HashMap<>(tuples.size() * 2);
+            for (TypedTuple<String> tuple : tuples) {
+                String id = tuple.getValue();
+                Long removed = redisService.zRem(legacyQueue, id);
+                if (id == null || removed == null || removed == 0) {
+                    continue;
+                }
+                RedisMessage message = redisTemplate.opsForValue().get(legacyPool + id);
+                if (message != null) {
+                    // 旧格式的消息id只保存在队列中
+                    message.setId(id);
+                    messages.add(message);
+                    scores.put(id, tuple.getScore() == null ? getScore(message) : tuple.getScore().longValue());
+                }
+            }
+            addMsgBatch(messages, message -> scores.get(message.getId()));
+            for (RedisMessage message : messages) {
+                redisService.delete(legacyPool + message.getId());
+            }
+            count += messages.size();
+        }
+        if (count > 0) {
+            log.info("RedisMq:{} 已迁移{}条旧格式消息", group, count);
+        }
+        return count;
+    }
+
+    /**
+     * 旧格式队列存在时迁移其中的消息 每个队列组最多每隔 {@link #LEGACY_CHECK_INTERVAL} 检查一次
+     *
+     * @param group 消息队列组
+     */
+    void ensureMigrated(String group) {
+        long now = System.currentTimeMillis();
+        Long checkAt = legacyCheckAt.get(group);
+        if (checkAt != null && now < checkAt) {
+            return;
+        }
+        legacyCheckAt.put(group, now + LEGACY_CHECK_INTERVAL);
+        if (Boolean.TRUE.equals(redisService.hasKey(QUEUE_NAME + group))) {
+            migrateLegacy(group);
+        }
+    }
 }
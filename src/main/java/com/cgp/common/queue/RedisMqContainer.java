@@ -0,0 +1,376 @@
+package com.cgp.common.queue;
+
+import com.cgp.common.constant.RedisMqProperties;
+import com.cgp.common.entity.RedisMessage;
+import com.cgp.common.utils.TimingWheel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Redis消息队列消费容器
+ * 每个队列组由一个拉取线程批量认领到期消息放入有界缓冲区, 再由多个消费线程并发执行,
+ * 单条消息执行缓慢不会阻塞同组其他到期消息.
+ * 队列中没有到期消息时拉取线程休眠到最早的消息到期, 生产者写入更早的消息时通过 {@link RedisMq#NOTIFY_CHANNEL} 提前唤醒
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "manaphy", name = "redis", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(RedisMqProperties.class)
+public class RedisMqContainer implements DisposableBean {
+
+    @Resource
+    private RedisMq redisMq;
+
+    @Resource
+    private RedisDelayQueue redisDelayQueue;
+
+    @Resource
+    private RedisMqProperties properties;
+
+    @Resource
+    private ObjectProvider<RedisMessageListenerContainer> listenerContainerProvider;
+
+    private final Map<String, ConsumerGroup> groups = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * 本地时间轮 保存短延迟消息
+     */
+    private volatile TimingWheel<RedisMessage> timingWheel;
+
+    /**
+     * 注册消费者 使用默认的消费线程数
+     *
+     * @param execute 消息执行类
+     */
+    public void register(RedisMqExecute execute) {
+        register(execute, properties.getConcurrency());
+    }
+
+    /**
+     * 注册消费者并启动消费线程
+     *
+     * @param execute     消息执行类
+     * @param concurrency 消费线程数
+     */
+    public void register(RedisMqExecute execute, int concurrency) {
+        Assert.notNull(execute, "消息执行类不能为空");
+        Assert.isTrue(concurrency > 0, "消费线程数必须大于0");
+        String group = execute.getQueueName();
+        subscribe();
+        groups.compute(group, (key, exist) -> {
+            Assert.isNull(exist, "队列组[" + group + "]已注册消费者");
+            ConsumerGroup consumerGroup = new ConsumerGroup(execute, concurrency);
+            consumerGroup.start();
+            return consumerGroup;
+        });
+    }
+
+    /**
+     * 停止并移除消费者
+     *
+     * @param group 消息队列组
+     */
+    public void unregister(String group) {
+        ConsumerGroup consumerGroup = groups.remove(group);
+        if (consumerGroup != null) {
+            consumerGroup.shutdown();
+        }
+    }
+
+    /**
+     * 订阅消息到达通知 只在本节点注册了消费者时订阅一次
+     */
+    private void subscribe() {
+        if (!subscribed.compareAndSet(false, true)) {
+            return;
+        }
+        RedisMessageListenerContainer listenerContainer = listenerContainerProvider.getIfAvailable();
+        if (listenerContainer == null) {
+            log.warn("未找到RedisMessageListenerContainer, 延迟队列消费者将按最长等待时间轮询");
+            return;
+        }
+        listenerContainer.addMessageListener(this::onNotify, new PatternTopic(RedisMq.NOTIFY_CHANNEL + "*"));
+    }
+
+    private void onNotify(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        ConsumerGroup consumerGroup = groups.get(channel.substring(RedisMq.NOTIFY_CHANNEL.length()));
+        if (consumerGroup == null) {
+            return;
+        }
+        try {
+            consumerGroup.wakeUp(Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8)));
+        } catch (NumberFormatException e) {
+            log.warn("RedisMq 无效的通知消息:{}", message);
+        }
+    }
+
+    /**
+     * 尝试将短延迟消息放入本地时间轮
+     * 只有本节点注册了该队列组的消费者且延迟不超过阈值时才会放入, 否则由调用方写入Redis
+     *
+     * @param message 已设置id的消息
+     * @return 是否已放入本地时间轮
+     */
+    boolean offerLocal(RedisMessage message) {
+        long threshold = properties.getLocalTierThreshold();
+        if (threshold <= 0 || !groups.containsKey(message.getGroup())) {
+            return false;
+        }
+        long score = RedisMq.getScore(message);
+        if (score - System.currentTimeMillis() > threshold) {
+            return false;
+        }
+        return getTimingWheel().add(message, score);
+    }
+
+    private TimingWheel<RedisMessage> getTimingWheel() {
+        if (timingWheel == null) {
+            synchronized (this) {
+                if (timingWheel == null) {
+                    timingWheel = new TimingWheel<>("redis-mq-timing-wheel", properties.getLocalTierTick(), 512, this::dispatch);
+                }
+            }
+        }
+        return timingWheel;
+    }
+
+    /**
+     * 本地时间轮中的消息到期, 直接放入消费缓冲区, 缓冲区已满或消费者已移除时写回Redis
+     */
+    private void dispatch(RedisMessage message) {
+        ConsumerGroup consumerGroup = groups.get(message.getGroup());
+        if (consumerGroup == null || !consumerGroup.buffer.offer(message)) {
+            redisMq.addMsgBatch(Collections.singletonList(message));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // 先将本地时间轮中未到期的消息写回Redis, 再关闭消费者
+        TimingWheel<RedisMessage> wheel = timingWheel;
+        if (wheel != null) {
+            List<RedisMessage> pending = wheel.stop();
+            if (!pending.isEmpty()) {
+                redisMq.addMsgBatch(pending);
+                log.info("RedisMq 本地时间轮{}条未到期消息已写回Redis", pending.size());
+            }
+        }
+        new ArrayList<>(groups.keySet()).forEach(this::unregister);
+    }
+
+    /**
+     * 单个队列组的消费者
+     */
+    private class ConsumerGroup {
+        private final RedisMqExecute execute;
+        private final String group;
+        private final int concurrency;
+        private final BlockingQueue<RedisMessage> buffer;
+        private final ExecutorService workers;
+        private final Thread poller;
+        private final Object signal = new Object();
+        /**
+         * 等待期间收到的最早消费时间通知
+         */
+        private long notifiedAt = Long.MAX_VALUE;
+        private volatile boolean running = true;
+
+        ConsumerGroup(RedisMqExecute execute, int concurrency) {
+            this.execute = execute;
+            this.group = execute.getQueueName();
+            this.concurrency = concurrency;
+            this.buffer = new ArrayBlockingQueue<>(properties.getBufferSize());
+            AtomicInteger index = new AtomicInteger();
+            this.workers = Executors.newFixedThreadPool(concurrency, r -> {
+                Thread thread = new Thread(r, "redis-mq-" + group + "-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.poller = new Thread(this::poll, "redis-mq-" + group + "-poller");
+            this.poller.setDaemon(true);
+        }
+
+        void start() {
+            for (int i = 0; i < concurrency; i++) {
+                workers.execute(this::work);
+            }
+            poller.start();
+        }
+
+        /**
+         * 拉取线程: 按缓冲区剩余容量认领消息, 没有到期消息时等待到最早的消息到期或被通知唤醒
+         */
+        private void poll() {
+            while (running) {
+                int capacity = Math.min(buffer.remainingCapacity(), properties.getBatchSize());
+                if (capacity == 0) {
+                    if (!sleep(properties.getMinIdleInterval())) {
+                        return;
+                    }
+                    continue;
+                }
+                // 在认领前重置通知, 认领之后到达的通知不会丢失
+                synchronized (signal) {
+                    notifiedAt = Long.MAX_VALUE;
+                }
+                List<RedisMessage> messages;
+                try {
+                    messages = redisMq.claimMsg(group, capacity);
+                } catch (Exception e) {
+                    log.error("RedisMq:{} 认领消息失败", group, e);
+                    if (!sleep(properties.getMinIdleInterval())) {
+                        return;
+                    }
+                    continue;
+                }
+                if (messages.isEmpty()) {
+                    if (!awaitNext()) {
+                        return;
+                    }
+                    continue;
+                }
+                // 本地时间轮也会向缓冲区投递消息, 放不下的消息写回Redis等待下次认领
+                List<RedisMessage> overflow = new ArrayList<>();
+                for (RedisMessage message : messages) {
+                    if (!buffer.offer(message)) {
+                        overflow.add(message);
+                    }
+                }
+                if (!overflow.isEmpty()) {
+                    redisMq.addMsgBatch(overflow);
+                }
+            }
+        }
+
+        /**
+         * 等待到队列中最早的消息到期, 最长等待 maxIdleInterval
+         *
+         * @return 消费者已关闭时返回false
+         */
+        private boolean awaitNext() {
+            long now = System.currentTimeMillis();
+            long deadline = now + properties.getMaxIdleInterval();
+            try {
+                Long next = redisMq.nextScore(group);
+                if (next != null) {
+                    deadline = Math.min(deadline, next);
+                }
+            } catch (Exception e) {
+                log.error("RedisMq:{} 获取最早消费时间失败", group, e);
+                deadline = Math.min(deadline, now + properties.getMinIdleInterval());
+            }
+            try {
+                synchronized (signal) {
+                    long wakeAt;
+                    while (running && (now = System.currentTimeMillis()) < (wakeAt = Math.min(deadline, notifiedAt))) {
+                        signal.wait(wakeAt - now);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return running;
+        }
+
+        /**
+         * 有更早的消息写入, 提前唤醒拉取线程
+         *
+         * @param score 消息的消费时间
+         */
+        void wakeUp(long score) {
+            synchronized (signal) {
+                if (score < notifiedAt) {
+                    notifiedAt = score;
+                    signal.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * 消费线程: 关闭时先消费完缓冲区中剩余的消息再退出
+         */
+        private void work() {
+            while (running || !buffer.isEmpty()) {
+                try {
+                    RedisMessage message = buffer.poll(properties.getMinIdleInterval(), TimeUnit.MILLISECONDS);
+                    if (message != null) {
+                        redisDelayQueue.consume(execute, message);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("RedisMq:{} 消费线程异常", group, e);
+                }
+            }
+        }
+
+        private boolean sleep(long millis) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(millis);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            poller.interrupt();
+            workers.shutdown();
+            try {
+                poller.join(properties.getShutdownTimeout());
+                if (!workers.awaitTermination(properties.getShutdownTimeout(), TimeUnit.MILLISECONDS)) {
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            // 超时未消费的消息按原消息id与消费次数放回Redis队列, 避免丢失
+            List<RedisMessage> remaining = new ArrayList<>();
+            buffer.drainTo(remaining);
+            if (remaining.isEmpty()) {
+                log.info("RedisMq:{} 消费者已关闭", group);
+                return;
+            }
+            try {
+                redisMq.addMsgBatch(remaining);
+                log.info("RedisMq:{} 消费者已关闭, 放回队列{}条消息", group, remaining.size());
+            } catch (Exception e) {
+                log.error("RedisMq:{} 消费者已关闭, {}条消息放回队列失败", group, remaining.size(), e);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.cgp.common.queue;
 
 import com.cgp.common.entity.RedisMessage;
+import com.cgp.common.utils.SpringUtils;
 
 /**
  * Redis消息执行接口
@@ -34,6 +35,9 @@ public interface RedisMqExecute {
 
     /**
      * 轮询线程
+     * 默认注册到 {@link RedisMqContainer} 由容器的消费线程池处理消息
      */
-    void threadPolling();
+    default void threadPolling() {
+        SpringUtils.getBean(RedisMqContainer.class).register(this);
+    }
 }
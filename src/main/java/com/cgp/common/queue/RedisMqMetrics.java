@@ -0,0 +1,44 @@
+package com.cgp.common.queue;
+
+/**
+ * 延迟队列监控指标
+ * 引入 micrometer-core 且存在 MeterRegistry 时由 {@link MicrometerRedisMqMetrics} 发布, 否则不记录
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public interface RedisMqMetrics {
+
+    /**
+     * 不记录任何指标
+     */
+    RedisMqMetrics NOOP = new RedisMqMetrics() {
+    };
+
+    /**
+     * 消息已写入队列
+     *
+     * @param group 消息队列组
+     * @param count 消息数
+     */
+    default void enqueued(String group, int count) {
+    }
+
+    /**
+     * 消息执行完成
+     *
+     * @param group   消息队列组
+     * @param nanos   执行耗时 单位:纳秒
+     * @param success 是否执行成功
+     */
+    default void executed(String group, long nanos, boolean success) {
+    }
+
+    /**
+     * 消息移入死信队列
+     *
+     * @param group 消息队列组
+     */
+    default void dead(String group) {
+    }
+}
@@ -0,0 +1,468 @@
+package com.cgp.common.queue;
+
+import com.cgp.common.constant.RedisMqProperties;
+import com.cgp.common.entity.RedisMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于Redis Stream的消息队列
+ * 适用于无需延迟的消息, 同一队列组的消息写入 Message:Stream:{group}, 通过消费组在多个节点间负载均衡,
+ * 消息执行成功后才确认并删除, 消费者崩溃或执行失败的消息超过 streamClaimIdle 后由其他消费者重新认领, 至少消费一次.
+ * 新消息通过连接驱动的 XREADGROUP 读取, 驱动不支持Stream命令(Jedis)时改为Lua脚本读取, 此时需要Redis 7.0及以上,
+ * 更早的版本不允许在脚本中执行 XREADGROUP; 认领、确认与移入死信等多步操作通过Lua脚本执行.
+ * 消息流与死信消息流通过hash tag落在同一个集群槽位, 移入死信与重放死信都在一次脚本调用中完成
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "manaphy", name = "redis", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(RedisMqProperties.class)
+public class RedisStreamMq {
+    /**
+     * 消息流前缀 以此前缀加上 {队列组} 作为key, 每条消息的 payload 字段保存消息{@link RedisMessage}
+     */
+    public static final String STREAM_KEY = "Message:Stream:";
+    /**
+     * 死信消息流前缀 保存超过最大消费次数的消息
+     */
+    public static final String DEAD_STREAM_KEY = "Message:Stream:Dead:";
+
+    /**
+     * 追加消息脚本
+     * KEYS[1]: 消息流 ARGV: 消息内容
+     */
+    private static final String ADD_SCRIPT = "local ids = {} " +
+            "for i = 1, #ARGV do ids[i] = redis.call('xadd', KEYS[1], '*', 'payload', ARGV[i]) end " +
+            "return ids";
+
+    /**
+     * 创建消费组脚本 从头开始消费, 消费组已存在时忽略
+     * KEYS[1]: 消息流 ARGV[1]: 消费组
+     */
+    private static final String CREATE_GROUP_SCRIPT = "local r = redis.pcall('xgroup', 'create', KEYS[1], ARGV[1], '0', 'MKSTREAM') " +
+            "if type(r) == 'table' and r.err and not string.find(r.err, 'BUSYGROUP') then return r end " +
+            "return 1";
+
+    /**
+     * 消息内容字段
+     */
+    private static final byte[] PAYLOAD = "payload".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 读取新消息脚本 只在连接驱动不支持Stream命令时使用 返回 id,消息内容,投递次数 的平铺数组
+     * KEYS[1]: 消息流 ARGV[1]: 消费组 ARGV[2]: 消费者 ARGV[3]: 最多读取数量
+     */
+    private static final String READ_SCRIPT = "local streams = redis.call('xreadgroup', 'GROUP', ARGV[1], ARGV[2], 'COUNT', ARGV[3], 'STREAMS', KEYS[1], '>') " +
+            "local result = {} " +
+            "if not streams then return result end " +
+            "for _, record in ipairs(streams[1][2]) do " +
+            "result[#result + 1] = record[1] result[#result + 1] = record[2][2] result[#result + 1] = '1' " +
+            "end " +
+            "return result";
+
+    /**
+     * 认领超时未确认的消息时最多扫描的待确认消息数 只在Redis 6.2以下不支持 XPENDING IDLE 时按页扫描
+     */
+    private static final int CLAIM_SCAN_LIMIT = 1000;
+
+    /**
+     * 认领超时未确认的消息脚本 返回 id,消息内容,投递次数 的平铺数组, 已被删除的消息直接确认
+     * 通过 XPENDING IDLE 只取空闲时间足够的消息, 不支持时从头按页扫描, 排在未超时消息之后的消息也能被认领
+     * KEYS[1]: 消息流 ARGV[1]: 消费组 ARGV[2]: 消费者 ARGV[3]: 最小空闲时间 ARGV[4]: 最多认领数量
+     */
+    private static final String CLAIM_SCRIPT = "local minIdle = tonumber(ARGV[3]) " +
+            "local count = tonumber(ARGV[4]) " +
+            "local pending = redis.pcall('xpending', KEYS[1], ARGV[1], 'IDLE', ARGV[3], '-', '+', ARGV[4]) " +
+            "if type(pending) == 'table' and pending.err then " +
+            "pending = {} " +
+            "local start = '-' " +
+            "local scanned = 0 " +
+            "while #pending < count and scanned < " + CLAIM_SCAN_LIMIT + " do " +
+            "local page = redis.call('xpending', KEYS[1], ARGV[1], start, '+', ARGV[4]) " +
+            "if #page == 0 then break end " +
+            "for _, p in ipairs(page) do " +
+            "if p[3] >= minIdle and #pending < count then pending[#pending + 1] = p end " +
+            "end " +
+            "scanned = scanned + #page " +
+            "local ms, seq = string.match(page[#page][1], '(%d+)-(%d+)') " +
+            "start = ms .. '-' .. string.format('%d', tonumber(seq) + 1) " +
+            "end " +
+            "end " +
+            "local result = {} " +
+            "for _, p in ipairs(pending) do " +
+            "if p[3] >= minIdle then " +
+            "local record = redis.call('xclaim', KEYS[1], ARGV[1], ARGV[2], ARGV[3], p[1])[1] " +
+            "if type(record) == 'table' and record[2] then " +
+            "result[#result + 1] = record[1] result[#result + 1] = record[2][2] result[#result + 1] = tostring(p[4] + 1) " +
+            "else redis.call('xack', KEYS[1], ARGV[1], p[1]) end " +
+            "end " +
+            "end " +
+            "return result";
+
+    /**
+     * 确认并删除消息脚本
+     * KEYS[1]: 消息流 ARGV[1]: 消费组 ARGV[2..]: 消息id
+     */
+    private static final String ACK_SCRIPT = "local ids = {unpack(ARGV, 2)} " +
+            "local n = redis.call('xack', KEYS[1], ARGV[1], unpack(ids)) " +
+            "redis.call('xdel', KEYS[1], unpack(ids)) " +
+            "return n";
+
+    /**
+     * 移入死信消息流脚本 写入死信消息流后确认并删除原消息
+     * KEYS[1]: 消息流 KEYS[2]: 死信消息流 ARGV[1]: 消费组 ARGV[2]: 消息id ARGV[3]: 消息内容
+     */
+    private static final String DEAD_SCRIPT = "redis.call('xadd', KEYS[2], '*', 'payload', ARGV[3]) " +
+            "redis.call('xack', KEYS[1], ARGV[1], ARGV[2]) " +
+            "redis.call('xdel', KEYS[1], ARGV[2]) " +
+            "return 1";
+
+    /**
+     * 重放死信消息脚本 将最早的若干条死信消息重新写入消息流并从死信消息流中删除
+     * 投递次数由消费组重新计数, 消息内容不需要修改
+     * KEYS[1]: 消息流 KEYS[2]: 死信消息流 ARGV[1]: 最多重放数量
+     * 返回重放的消息数
+     */
+    private static final String REPLAY_DEAD_SCRIPT = "local records = redis.call('xrange', KEYS[2], '-', '+', 'COUNT', ARGV[1]) " +
+            "for _, record in ipairs(records) do " +
+            "redis.call('xadd', KEYS[1], '*', 'payload', record[2][2]) " +
+            "redis.call('xdel', KEYS[2], record[1]) " +
+            "end " +
+            "return #records";
+
+    /**
+     * 消息流长度脚本
+     * KEYS[1]: 消息流
+     */
+    private static final String SIZE_SCRIPT = "return redis.call('xlen', KEYS[1])";
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ADD = new DefaultRedisScript<>(ADD_SCRIPT, List.class);
+    private static final RedisScript<Long> CREATE_GROUP = new DefaultRedisScript<>(CREATE_GROUP_SCRIPT, Long.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> READ = new DefaultRedisScript<>(READ_SCRIPT, List.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CLAIM = new DefaultRedisScript<>(CLAIM_SCRIPT, List.class);
+    private static final RedisScript<Long> SIZE = new DefaultRedisScript<>(SIZE_SCRIPT, Long.class);
+    private static final RedisScript<Long> ACK = new DefaultRedisScript<>(ACK_SCRIPT, Long.class);
+    private static final RedisScript<Long> DEAD = new DefaultRedisScript<>(DEAD_SCRIPT, Long.class);
+    private static final RedisScript<Long> REPLAY_DEAD = new DefaultRedisScript<>(REPLAY_DEAD_SCRIPT, Long.class);
+
+    @Resource(name = "redisMessageTemplate")
+    private RedisTemplate<String, RedisMessage> redisTemplate;
+    @Resource
+    private RedisMqProperties properties;
+
+    /**
+     * 本节点的消费者名称
+     */
+    private final String consumerName = ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * 已创建消费组的消息流
+     */
+    private final Set<String> createdGroups = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 连接驱动是否支持Stream命令 不支持时通过Lua脚本读取新消息
+     */
+    private volatile boolean streamCommands = true;
+
+    /**
+     * 发送消息 消息id为Redis生成的消息流id
+     *
+     * @param message 消息
+     */
+    public void sendMessage(RedisMessage message) {
+        Assert.notNull(message, "消息不能为空");
+        sendMessages(Collections.singletonList(message));
+    }
+
+    /**
+     * 批量发送消息 同一队列组的消息在一次脚本调用中写入, 延迟时间不生效
+     *
+     * @param messages 消息
+     */
+    public void sendMessages(Collection<RedisMessage> messages) {
+        Assert.notEmpty(messages, "消息不能为空");
+        Map<String, List<RedisMessage>> groups = new LinkedHashMap<>(4);
+        for (RedisMessage message : messages) {
+            Assert.notNull(message, "消息不能为空");
+            groups.computeIfAbsent(message.getGroup(), key -> new ArrayList<>()).add(message);
+        }
+        groups.forEach((group, list) -> add(streamKey(group), list));
+    }
+
+    /**
+     * 读取新消息
+     *
+     * @param group 消息队列组
+     * @param count 最多读取数量
+     * @return 消息, 已设置id与消费失败次数
+     */
+    public List<RedisMessage> read(String group, int count) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        if (streamCommands) {
+            try {
+                return readGroup(group, count);
+            } catch (UnsupportedOperationException e) {
+                streamCommands = false;
+                log.info("RedisStreamMq 连接驱动不支持Stream命令, 改为通过Lua脚本读取新消息, 需要Redis 7.0及以上");
+            }
+        }
+        return execute(group, READ, properties.getStreamGroup(), consumerName, String.valueOf(count));
+    }
+
+    /**
+     * 通过连接驱动的 XREADGROUP 读取新消息
+     */
+    @SuppressWarnings("unchecked")
+    private List<RedisMessage> readGroup(String group, int count) {
+        String key = streamKey(group);
+        createGroup(key);
+        byte[] rawKey = RedisSerializer.string().serialize(key);
+        List<ByteRecord> records;
+        try {
+            records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection -> connection.xReadGroup(
+                    Consumer.from(properties.getStreamGroup(), consumerName), StreamReadOptions.empty().count(count),
+                    StreamOffset.create(rawKey, ReadOffset.lastConsumed())));
+        } catch (UnsupportedOperationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // 消息流或消费组可能已被删除, 下次调用时重新创建
+            createdGroups.remove(key);
+            throw e;
+        }
+        if (records == null || records.isEmpty()) {
+            return Collections.emptyList();
+        }
+        RedisSerializer<RedisMessage> valueSerializer = (RedisSerializer<RedisMessage>) redisTemplate.getValueSerializer();
+        List<RedisMessage> messages = new ArrayList<>(records.size());
+        for (ByteRecord record : records) {
+            byte[] payload = null;
+            for (Map.Entry<byte[], byte[]> field : record.getValue().entrySet()) {
+                if (Arrays.equals(PAYLOAD, field.getKey())) {
+                    payload = field.getValue();
+                }
+            }
+            RedisMessage message = valueSerializer.deserialize(payload);
+            if (message == null) {
+                continue;
+            }
+            message.setId(record.getId().getValue());
+            message.setAttempts(0);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * 认领其他消费者超过 streamClaimIdle 仍未确认的消息
+     * 消费者崩溃或执行失败的消息由此重新投递, 投递次数加一
+     *
+     * @param group 消息队列组
+     * @param count 最多认领数量
+     * @return 消息, 已设置id与消费失败次数
+     */
+    public List<RedisMessage> claim(String group, int count) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        return execute(group, CLAIM, properties.getStreamGroup(), consumerName,
+                String.valueOf(properties.getStreamClaimIdle()), String.valueOf(count));
+    }
+
+    /**
+     * 确认消息已消费 确认后的消息从消息流中删除
+     *
+     * @param group 消息队列组
+     * @param ids   消息id
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void ack(String group, Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return;
+        }
+        List<Object> args = new ArrayList<>(ids.size() + 1);
+        args.add(properties.getStreamGroup());
+        args.addAll(ids);
+        redisTemplate.execute(ACK, redisTemplate.getStringSerializer(), (RedisSerializer) RedisSerializer.string(),
+                Collections.singletonList(streamKey(group)), args.toArray());
+    }
+
+    /**
+     * 消息消费者
+     * 优先认领超时未确认的消息, 不足 count 时再读取新消息, 执行成功的消息在一次调用中批量确认,
+     * 执行失败的消息保持未确认, 超过最大消费次数后在一次脚本调用中移入死信消息流并确认.
+     * 可以使用定时任务或循环线程调用
+     *
+     * @param execute 消息执行类
+     * @param count   单次最多处理的消息数
+     * @return 本次处理的消息数
+     */
+    public int consume(RedisMqExecute execute, int count) {
+        String group = execute.getQueueName();
+        List<RedisMessage> messages = new ArrayList<>(claim(group, count));
+        messages.addAll(read(group, count - messages.size()));
+        List<String> done = new ArrayList<>(messages.size());
+        for (RedisMessage message : messages) {
+            if (message.getAttempts() >= properties.getMaxAttempts()) {
+                log.error("RedisStreamMq:{} 已消费失败{}次，移入死信消息流", message.getId(), message.getAttempts());
+                try {
+                    moveToDead(group, message);
+                } catch (Exception e) {
+                    log.error("RedisStreamMq:{} 移入死信消息流失败，等待重新认领", message.getId(), e);
+                }
+                continue;
+            }
+            try {
+                execute.execute(message);
+                done.add(message.getId());
+            } catch (Exception e) {
+                log.warn("RedisStreamMq:{} 第{}次消费失败，等待重新认领", message.getId(), message.getAttempts() + 1, e);
+            }
+        }
+        ack(group, done);
+        return messages.size();
+    }
+
+    /**
+     * 死信消息流中的消息数
+     *
+     * @param group 消息队列组
+     * @return 消息数
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Long deadSize(String group) {
+        return redisTemplate.execute(SIZE, redisTemplate.getStringSerializer(), (RedisSerializer) RedisSerializer.string(),
+                Collections.singletonList(deadKey(group)));
+    }
+
+    /**
+     * 将死信消息流中最早的消息重新发送, 消费次数清零
+     *
+     * @param group 消息队列组
+     * @param count 最多重放的消息数
+     * @return 实际重放的消息数
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public int replayDead(String group, int count) {
+        if (count <= 0) {
+            return 0;
+        }
+        Long replayed = redisTemplate.execute(REPLAY_DEAD, redisTemplate.getStringSerializer(),
+                (RedisSerializer) RedisSerializer.string(), Arrays.asList(streamKey(group), deadKey(group)),
+                String.valueOf(count));
+        return replayed == null ? 0 : replayed.intValue();
+    }
+
+    /**
+     * 移入死信消息流并确认原消息
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void moveToDead(String group, RedisMessage message) {
+        RedisSerializer<RedisMessage> valueSerializer = (RedisSerializer<RedisMessage>) redisTemplate.getValueSerializer();
+        RedisSerializer<String> stringSerializer = RedisSerializer.string();
+        redisTemplate.execute(DEAD, RedisSerializer.byteArray(), (RedisSerializer) RedisSerializer.string(),
+                Arrays.asList(streamKey(group), deadKey(group)), stringSerializer.serialize(properties.getStreamGroup()),
+                stringSerializer.serialize(message.getId()), valueSerializer.serialize(message));
+    }
+
+    private static String streamKey(String group) {
+        return STREAM_KEY + "{" + group + "}";
+    }
+
+    private static String deadKey(String group) {
+        return DEAD_STREAM_KEY + "{" + group + "}";
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void add(String key, List<RedisMessage> messages) {
+        RedisSerializer<RedisMessage> valueSerializer = (RedisSerializer<RedisMessage>) redisTemplate.getValueSerializer();
+        Object[] payloads = new Object[messages.size()];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = valueSerializer.serialize(messages.get(i));
+        }
+        List<String> ids = redisTemplate.execute(ADD, RedisSerializer.byteArray(), (RedisSerializer) RedisSerializer.string(),
+                Collections.singletonList(key), payloads);
+        for (int i = 0; ids != null && i < ids.size(); i++) {
+            messages.get(i).setId(ids.get(i));
+        }
+    }
+
+    /**
+     * 执行读取或认领脚本 并将 id,消息内容,投递次数 还原为消息
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<RedisMessage> execute(String group, RedisScript<List> script, Object... args) {
+        String key = streamKey(group);
+        createGroup(key);
+        List<byte[]> result;
+        try {
+            result = redisTemplate.execute(script, redisTemplate.getStringSerializer(), (RedisSerializer) RedisSerializer.byteArray(),
+                    Collections.singletonList(key), args);
+        } catch (RuntimeException e) {
+            // 消息流或消费组可能已被删除, 下次调用时重新创建
+            createdGroups.remove(key);
+            throw e;
+        }
+        if (result == null || result.isEmpty()) {
+            return Collections.emptyList();
+        }
+        RedisSerializer<String> stringSerializer = RedisSerializer.string();
+        RedisSerializer<RedisMessage> valueSerializer = (RedisSerializer<RedisMessage>) redisTemplate.getValueSerializer();
+        List<RedisMessage> messages = new ArrayList<>(result.size() / 3);
+        for (int i = 0; i + 2 < result.size(); i += 3) {
+            RedisMessage message = valueSerializer.deserialize(result.get(i + 1));
+            if (message == null) {
+                continue;
+            }
+            message.setId(stringSerializer.deserialize(result.get(i)));
+            message.setAttempts(Integer.parseInt(stringSerializer.deserialize(result.get(i + 2))) - 1);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void createGroup(String key) {
+        if (createdGroups.contains(key)) {
+            return;
+        }
+        redisTemplate.execute(CREATE_GROUP, redisTemplate.getStringSerializer(), (RedisSerializer) RedisSerializer.string(),
+                Collections.singletonList(key), properties.getStreamGroup());
+        createdGroups.add(key);
+    }
+}
@@ -0,0 +1,155 @@
+package com.cgp.common.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 分布式锁的公共实现
+ * 子类只需实现一次加锁尝试与解锁, 等待时订阅锁的释放通知.
+ * 独占锁可以在前面加一层本地锁, 同一节点内只有拿到本地锁的线程才会请求Redis
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+abstract class AbstractRedisLock implements Lock {
+
+    /**
+     * 锁释放通知使用的key
+     */
+    private final String channelKey;
+    private final RedisLockSubscriber subscriber;
+    /**
+     * 本地锁 为null时不使用
+     */
+    private final LocalLockRegistry localLocks;
+
+    AbstractRedisLock(String channelKey, RedisLockSubscriber subscriber, LocalLockRegistry localLocks) {
+        this.channelKey = channelKey;
+        this.subscriber = subscriber;
+        this.localLocks = localLocks;
+    }
+
+    @Override
+    public void lock() {
+        if (localLocks != null) {
+            localLocks.lock(channelKey);
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    subscriber.acquire(channelKey, -1, Long.MAX_VALUE, this::tryAcquire);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (RuntimeException e) {
+            unlockLocal();
+            throw e;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (localLocks != null) {
+            localLocks.lockInterruptibly(channelKey);
+        }
+        boolean acquired = false;
+        try {
+            acquired = subscriber.acquire(channelKey, -1, Long.MAX_VALUE, this::tryAcquire);
+        } finally {
+            if (!acquired) {
+                unlockLocal();
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (localLocks != null && !localLocks.tryLock(channelKey)) {
+            return false;
+        }
+        boolean acquired = false;
+        try {
+            acquired = tryAcquire() == null;
+            return acquired;
+        } finally {
+            if (!acquired) {
+                unlockLocal();
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long waitMillis = Math.max(unit.toMillis(time), 0);
+        long deadline = System.currentTimeMillis() + waitMillis;
+        if (localLocks != null && !localLocks.tryLock(channelKey, waitMillis)) {
+            return false;
+        }
+        boolean acquired = false;
+        try {
+            acquired = subscriber.acquire(channelKey, Math.max(deadline - System.currentTimeMillis(), 0),
+                    Long.MAX_VALUE, this::tryAcquire);
+            return acquired;
+        } finally {
+            if (!acquired) {
+                unlockLocal();
+            }
+        }
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            release();
+        } finally {
+            unlockLocal();
+        }
+    }
+
+    private void unlockLocal() {
+        if (localLocks != null) {
+            localLocks.unlock(channelKey);
+        }
+    }
+
+    /**
+     * 分布式锁不支持条件变量
+     */
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("分布式锁不支持Condition");
+    }
+
+    /**
+     * 尝试加锁一次
+     *
+     * @return 加锁成功时返回null, 否则返回建议的等待时间 单位:毫秒
+     */
+    protected abstract Long tryAcquire();
+
+    /**
+     * 释放分布式锁
+     */
+    protected abstract void release();
+
+    /**
+     * 当前线程作为持有者的标识
+     *
+     * @param clientId 节点标识
+     * @return 节点标识:线程id
+     */
+    static String getOwner(String clientId) {
+        return clientId + ":" + Thread.currentThread().getId();
+    }
+
+    static IllegalMonitorStateException notHeld(String key) {
+        return new IllegalMonitorStateException("当前线程未持有分布式锁[" + key + "]");
+    }
+}
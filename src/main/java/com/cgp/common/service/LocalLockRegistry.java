@@ -0,0 +1,93 @@
+package com.cgp.common.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分布式锁的本地锁
+ * 同一节点内竞争同一把分布式锁的线程先在本地排队, 只有拿到本地锁的线程才会访问Redis,
+ * 其余线程在本地锁上等待, 不会各自请求Redis后失败重试.
+ * 本地锁按key创建并按引用计数回收, 不同的key不会共用本地锁, 避免无关的锁之间互相阻塞甚至死锁
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+class LocalLockRegistry {
+
+    private final Map<String, LocalLock> locks = new ConcurrentHashMap<>();
+
+    void lock(String key) {
+        LocalLock local = retain(key);
+        local.lock.lock();
+    }
+
+    void lockInterruptibly(String key) throws InterruptedException {
+        LocalLock local = retain(key);
+        try {
+            local.lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            release(key);
+            throw e;
+        }
+    }
+
+    boolean tryLock(String key) {
+        LocalLock local = retain(key);
+        if (local.lock.tryLock()) {
+            return true;
+        }
+        release(key);
+        return false;
+    }
+
+    boolean tryLock(String key, long millis) throws InterruptedException {
+        LocalLock local = retain(key);
+        boolean locked = false;
+        try {
+            locked = local.lock.tryLock(millis, TimeUnit.MILLISECONDS);
+            return locked;
+        } finally {
+            if (!locked) {
+                release(key);
+            }
+        }
+    }
+
+    /**
+     * 释放当前线程持有的本地锁
+     *
+     * @param key 锁
+     */
+    void unlock(String key) {
+        LocalLock local = locks.get(key);
+        if (local == null || !local.lock.isHeldByCurrentThread()) {
+            return;
+        }
+        local.lock.unlock();
+        release(key);
+    }
+
+    private LocalLock retain(String key) {
+        return locks.compute(key, (k, local) -> {
+            if (local == null) {
+                local = new LocalLock();
+            }
+            local.references++;
+            return local;
+        });
+    }
+
+    private void release(String key) {
+        locks.computeIfPresent(key, (k, local) -> --local.references > 0 ? local : null);
+    }
+
+    private static class LocalLock {
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * 持有或等待本地锁的次数 只在 {@link ConcurrentHashMap#compute} 中修改
+         */
+        private int references;
+    }
+}
@@ -1,13 +1,19 @@
 package com.cgp.common.service;
 
-import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.params.SetParams;
 
 import javax.annotation.Resource;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Redis 分布式锁实现
@@ -16,20 +22,108 @@ import java.util.Collections;
  * @date 2020-04-28
  */
 @Service
-public class RedisLock {
+public class RedisLock implements DisposableBean {
 
-    private static final Long RELEASE_SUCCESS = 1L;
-    private static final String LOCK_SUCCESS = "OK";
+    /**
+     * 释放锁脚本 释放成功后向锁的通知频道发布消息, 唤醒等待的线程
+     * if get(key) == value then del(key) publish(channel)
+     */
+    private static final String RELEASE_LOCK_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "redis.call('del', KEYS[1]) redis.call('publish', ARGV[2], 1) return 1 " +
+            "else return 0 end";
+
+    /**
+     * 加锁脚本
+     * KEYS[1]: 锁 ARGV[1]: 客户端标识 ARGV[2]: 过期时间 单位:毫秒
+     * 返回 nil 表示加锁成功, 否则返回锁的剩余过期时间
+     */
+    private static final String ACQUIRE_SCRIPT = "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return nil end " +
+            "return redis.call('pttl', KEYS[1])";
 
     /**
-     * 释放锁脚本
-     * if get(key) == value return del(key)
+     * 公平加锁脚本 等待的客户端按到达顺序排队, 锁空闲时只有队首可以加锁.
+     * 排队的客户端需要在超时前再次执行脚本刷新超时时间, 已超时的队首视为已放弃并出队
+     * KEYS[1]: 锁 KEYS[2]: 等待队列 KEYS[3]: 等待超时zset
+     * ARGV[1]: 客户端标识 ARGV[2]: 过期时间 ARGV[3]: 当前时间 ARGV[4]: 排队超时时间
+     * 返回 nil 表示加锁成功, 否则返回锁的剩余过期时间
      */
-    private static final String RELEASE_LOCK_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+    private static final String FAIR_ACQUIRE_SCRIPT = "local now = tonumber(ARGV[3]) " +
+            "while true do " +
+            "local first = redis.call('lindex', KEYS[2], 0) " +
+            "if not first then break end " +
+            "local timeout = redis.call('zscore', KEYS[3], first) " +
+            "if timeout and tonumber(timeout) > now then break end " +
+            "redis.call('lpop', KEYS[2]) redis.call('zrem', KEYS[3], first) " +
+            "end " +
+            "if redis.call('exists', KEYS[1]) == 0 then " +
+            "local first = redis.call('lindex', KEYS[2], 0) " +
+            "if not first or first == ARGV[1] then " +
+            "if first then redis.call('lpop', KEYS[2]) redis.call('zrem', KEYS[3], first) end " +
+            "redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]) " +
+            "return nil " +
+            "end " +
+            "end " +
+            "if not redis.call('zscore', KEYS[3], ARGV[1]) then redis.call('rpush', KEYS[2], ARGV[1]) end " +
+            "redis.call('zadd', KEYS[3], now + tonumber(ARGV[4]), ARGV[1]) " +
+            "redis.call('pexpire', KEYS[2], ARGV[4]) redis.call('pexpire', KEYS[3], ARGV[4]) " +
+            "return redis.call('pttl', KEYS[1])";
+
+    /**
+     * 放弃公平锁排队 锁空闲时通知后续的客户端
+     * KEYS[1]: 锁 KEYS[2]: 等待队列 KEYS[3]: 等待超时zset ARGV[1]: 客户端标识 ARGV[2]: 通知频道
+     */
+    private static final String FAIR_CANCEL_SCRIPT = "redis.call('lrem', KEYS[2], 0, ARGV[1]) " +
+            "redis.call('zrem', KEYS[3], ARGV[1]) " +
+            "if redis.call('exists', KEYS[1]) == 0 then redis.call('publish', ARGV[2], 1) end " +
+            "return 1";
+
+    private static final RedisScript<Long> RELEASE_LOCK = new DefaultRedisScript<>(RELEASE_LOCK_SCRIPT, Long.class);
+    private static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>(ACQUIRE_SCRIPT, Long.class);
+    private static final RedisScript<Long> FAIR_ACQUIRE = new DefaultRedisScript<>(FAIR_ACQUIRE_SCRIPT, Long.class);
+    private static final RedisScript<Long> FAIR_CANCEL = new DefaultRedisScript<>(FAIR_CANCEL_SCRIPT, Long.class);
+
+    /**
+     * 公平锁等待队列前缀
+     */
+    private static final String FAIR_QUEUE = "RedisLock:Queue:";
+    /**
+     * 公平锁等待超时zset前缀
+     */
+    private static final String FAIR_TIMEOUT = "RedisLock:Timeout:";
+    /**
+     * 公平锁排队超时时间 单位:毫秒, 等待的客户端每半个超时时间刷新一次
+     */
+    private static final long FAIR_WAIT_TIMEOUT = 5000;
+    /**
+     * 无法订阅通知时的重试间隔 单位:毫秒
+     */
+    static final long RETRY_INTERVAL = 100;
+
+    /**
+     * 可重入锁的租期 单位:毫秒, 持有期间由看门狗每 1/3 租期续期一次
+     */
+    private static final long LOCK_LEASE_MILLIS = 30000;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 本节点标识 与线程id组成可重入锁的持有者
+     */
+    private final String clientId = UUID.randomUUID().toString();
+
+    @Resource
+    private ObjectProvider<RedisMessageListenerContainer> listenerContainerProvider;
+
+    /**
+     * 可重入锁与写锁的本地锁
+     */
+    private final LocalLockRegistry localLocks = new LocalLockRegistry();
+
+    private volatile RedisLockWatchdog watchdog;
+
+    private volatile RedisLockSubscriber subscriber;
+
     /**
      * 该加锁方法仅针对单实例 Redis 可实现分布式加锁
      * 对于 Redis 集群则无法使用
@@ -42,12 +136,7 @@ public class RedisLock {
      * @return Boolean
      */
     public Boolean tryLock(String lockKey, String clientId, long seconds) {
-        return stringRedisTemplate.execute((RedisCallback<Boolean>) redisConnection -> {
-            Jedis jedis = (Jedis) redisConnection.getNativeConnection();
-            //String result = jedis.set(lockKey, clientId, "NX", "EX", seconds); //Jedis 3.1.0之前使用该方法
-            String result = jedis.set(lockKey, clientId, new SetParams().nx().px(seconds));
-            return LOCK_SUCCESS.equals(result);
-        });
+        return stringRedisTemplate.opsForValue().setIfAbsent(lockKey, clientId, seconds, TimeUnit.SECONDS);
     }
 
     /**
@@ -57,11 +146,129 @@ public class RedisLock {
      * @param clientId 客户端Id
      */
     public void releaseLock(String lockKey, String clientId) {
-        stringRedisTemplate.execute((RedisCallback<Boolean>) redisConnection -> {
-            Jedis jedis = (Jedis) redisConnection.getNativeConnection();
-            Object result = jedis.eval(RELEASE_LOCK_SCRIPT, Collections.singletonList(lockKey),
-                    Collections.singletonList(clientId));
-            return RELEASE_SUCCESS.equals(result);
-        });
+        stringRedisTemplate.execute(RELEASE_LOCK, Collections.singletonList(lockKey),
+                clientId, RedisLockSubscriber.CHANNEL + lockKey);
+    }
+
+    /**
+     * 阻塞加锁 锁被占用时订阅锁的释放通知, 锁释放后立即被唤醒重试, 而不是循环轮询
+     *
+     * @param lockKey  加锁键
+     * @param clientId 加锁客户端唯一标识(采用UUID)
+     * @param seconds  锁过期时间 单位:秒
+     * @param timeout  最长等待时间 单位:毫秒
+     * @return 是否加锁成功
+     */
+    public boolean lock(String lockKey, String clientId, long seconds, long timeout) {
+        return lock(lockKey, clientId, seconds, timeout, false);
+    }
+
+    /**
+     * 阻塞加锁
+     *
+     * @param lockKey  加锁键
+     * @param clientId 加锁客户端唯一标识(采用UUID)
+     * @param seconds  锁过期时间 单位:秒
+     * @param timeout  最长等待时间 单位:毫秒
+     * @param fair     是否公平锁 公平锁按等待的先后顺序加锁
+     * @return 是否加锁成功, 等待超时或线程被中断时返回false
+     */
+    public boolean lock(String lockKey, String clientId, long seconds, long timeout, boolean fair) {
+        String leaseMillis = String.valueOf(TimeUnit.SECONDS.toMillis(seconds));
+        // 公平锁排队期间需要在排队超时前刷新
+        long maxInterval = fair ? FAIR_WAIT_TIMEOUT / 2 : Long.MAX_VALUE;
+        boolean acquired = false;
+        try {
+            acquired = getSubscriber().acquire(lockKey, Math.max(timeout, 0), maxInterval,
+                    () -> acquire(lockKey, clientId, leaseMillis, fair));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!acquired) {
+                cancel(lockKey, clientId, fair);
+            }
+        }
+        return acquired;
+    }
+
+    /**
+     * @return 加锁成功时返回null, 否则返回锁的剩余过期时间
+     */
+    private Long acquire(String lockKey, String clientId, String leaseMillis, boolean fair) {
+        if (!fair) {
+            return stringRedisTemplate.execute(ACQUIRE, Collections.singletonList(lockKey), clientId, leaseMillis);
+        }
+        return stringRedisTemplate.execute(FAIR_ACQUIRE, fairKeys(lockKey), clientId, leaseMillis,
+                String.valueOf(System.currentTimeMillis()), String.valueOf(FAIR_WAIT_TIMEOUT));
+    }
+
+    private void cancel(String lockKey, String clientId, boolean fair) {
+        if (fair) {
+            stringRedisTemplate.execute(FAIR_CANCEL, fairKeys(lockKey), clientId, RedisLockSubscriber.CHANNEL + lockKey);
+        }
+    }
+
+    private static List<String> fairKeys(String lockKey) {
+        return Arrays.asList(lockKey, FAIR_QUEUE + lockKey, FAIR_TIMEOUT + lockKey);
+    }
+
+    /**
+     * 获取可重入锁 持有期间自动续期, 可以替代 {@link java.util.concurrent.locks.Lock} 使用
+     *
+     * @param lockKey 加锁键
+     * @return {@link RedisReentrantLock}
+     */
+    public RedisReentrantLock getLock(String lockKey) {
+        return new RedisReentrantLock(lockKey, clientId, stringRedisTemplate, getWatchdog(), getSubscriber(), localLocks);
+    }
+
+    /**
+     * 获取读写锁 多个读者可以同时持有读锁, 写锁独占
+     *
+     * @param lockKey 加锁键
+     * @return {@link RedisReadWriteLock}
+     */
+    public RedisReadWriteLock getReadWriteLock(String lockKey) {
+        return new RedisReadWriteLock(lockKey, clientId, stringRedisTemplate, getWatchdog(), getSubscriber(), localLocks);
+    }
+
+    /**
+     * 获取信号量 限制跨节点的并发数
+     *
+     * @param key     信号量键
+     * @param permits 许可数, 使用同一信号量的节点须保持一致
+     * @return {@link RedisSemaphore}
+     */
+    public RedisSemaphore getSemaphore(String key, int permits) {
+        return new RedisSemaphore(key, permits, stringRedisTemplate, getWatchdog(), getSubscriber());
+    }
+
+    private RedisLockWatchdog getWatchdog() {
+        if (watchdog == null) {
+            synchronized (this) {
+                if (watchdog == null) {
+                    watchdog = new RedisLockWatchdog(stringRedisTemplate, LOCK_LEASE_MILLIS);
+                }
+            }
+        }
+        return watchdog;
+    }
+
+    private RedisLockSubscriber getSubscriber() {
+        if (subscriber == null) {
+            synchronized (this) {
+                if (subscriber == null) {
+                    subscriber = new RedisLockSubscriber(listenerContainerProvider.getIfAvailable());
+                }
+            }
+        }
+        return subscriber;
+    }
+
+    @Override
+    public void destroy() {
+        if (watchdog != null) {
+            watchdog.shutdown();
+        }
     }
 }
@@ -0,0 +1,215 @@
+package com.cgp.common.service;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 分布式锁释放通知订阅
+ * 等待同一把锁的线程共用一个频道订阅, 按引用计数在第一个线程开始等待时订阅, 最后一个线程结束等待时取消订阅.
+ * 订阅是异步生效的, 生效前发布的通知会丢失, 所以新订阅在收到第一条通知或经过确认时间之前按重试间隔轮询
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+class RedisLockSubscriber {
+
+    /**
+     * 锁释放通知频道前缀 释放锁的脚本向 前缀+锁 发布消息
+     */
+    static final String CHANNEL = "RedisLock:Channel:";
+
+    /**
+     * 订阅的确认时间 新订阅在此期间内每次最多等待 {@link RedisLock#RETRY_INTERVAL}
+     */
+    private static final long SUBSCRIBE_CONFIRM_MILLIS = 1000;
+
+    private final RedisMessageListenerContainer listenerContainer;
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * @param listenerContainer 订阅监听容器, 为null时等待线程按最长等待间隔重试
+     */
+    RedisLockSubscriber(RedisMessageListenerContainer listenerContainer) {
+        this.listenerContainer = listenerContainer;
+    }
+
+    /**
+     * 循环尝试获取锁, 失败时等待锁的释放通知后重试
+     * 通知可能在订阅生效前发布, 订阅确认前每次最多等待重试间隔, 之后每次最多等待到锁过期
+     *
+     * @param key         锁
+     * @param waitMillis  最长等待时间, 小于0时一直等待
+     * @param maxInterval 两次尝试的最长间隔
+     * @param attempt     尝试获取锁, 成功时返回null, 否则返回锁的剩余过期时间
+     * @return 是否获取成功
+     * @throws InterruptedException 等待时线程被中断
+     */
+    boolean acquire(String key, long waitMillis, long maxInterval, Supplier<Long> attempt) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (attempt.get() == null) {
+            return true;
+        }
+        if (waitMillis == 0) {
+            return false;
+        }
+        long deadline = System.currentTimeMillis() + waitMillis;
+        if (listenerContainer == null) {
+            maxInterval = Math.min(maxInterval, RedisLock.RETRY_INTERVAL);
+        }
+        Subscription subscription = subscribe(key);
+        try {
+            while (true) {
+                long seen = subscription.version();
+                Long ttl = attempt.get();
+                if (ttl == null) {
+                    return true;
+                }
+                long wait = Math.min(ttl > 0 ? ttl : RedisLock.RETRY_INTERVAL, maxInterval);
+                if (!subscription.isConfirmed()) {
+                    wait = Math.min(wait, RedisLock.RETRY_INTERVAL);
+                }
+                if (waitMillis > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    wait = Math.min(wait, remaining);
+                }
+                subscription.await(seen, wait);
+            }
+        } finally {
+            unsubscribe(subscription);
+        }
+    }
+
+    /**
+     * 开始等待锁释放通知
+     *
+     * @param key 锁
+     * @return 订阅, 结束等待后需调用 {@link #unsubscribe(Subscription)}
+     */
+    Subscription subscribe(String key) {
+        Subscription created = new Subscription(key);
+        Subscription subscription = subscriptions.compute(key, (k, exist) -> {
+            Subscription current = exist == null ? created : exist;
+            current.references++;
+            return current;
+        });
+        // 注册监听可能阻塞, 不在compute中执行
+        if (subscription == created && listenerContainer != null) {
+            created.register(listenerContainer);
+        }
+        return subscription;
+    }
+
+    /**
+     * 结束等待
+     *
+     * @param subscription 订阅
+     */
+    void unsubscribe(Subscription subscription) {
+        boolean[] removed = new boolean[1];
+        subscriptions.computeIfPresent(subscription.key, (k, exist) -> {
+            if (exist != subscription || --exist.references > 0) {
+                return exist;
+            }
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0] && listenerContainer != null) {
+            subscription.deregister(listenerContainer);
+        }
+    }
+
+    /**
+     * 单把锁的订阅
+     */
+    static class Subscription implements MessageListener {
+        private final String key;
+        private final ChannelTopic topic;
+        /**
+         * 等待线程数 只在 {@link ConcurrentHashMap#compute} 中修改
+         */
+        private int references;
+        /**
+         * 已收到的通知数
+         */
+        private long version;
+        private final long createdAt = System.currentTimeMillis();
+        /**
+         * 注册与注销监听的锁 注册与注销可能由不同线程执行, 保证先注册后注销
+         */
+        private final Object registration = new Object();
+        private boolean registered;
+        private boolean closed;
+
+        Subscription(String key) {
+            this.key = key;
+            this.topic = new ChannelTopic(CHANNEL + key);
+        }
+
+        void register(RedisMessageListenerContainer container) {
+            synchronized (registration) {
+                if (!closed) {
+                    container.addMessageListener(this, topic);
+                    registered = true;
+                }
+            }
+        }
+
+        void deregister(RedisMessageListenerContainer container) {
+            synchronized (registration) {
+                closed = true;
+                if (registered) {
+                    container.removeMessageListener(this, topic);
+                    registered = false;
+                }
+            }
+        }
+
+        /**
+         * 订阅是否已确认生效 收到过通知或已超过确认时间
+         */
+        synchronized boolean isConfirmed() {
+            return version > 0 || System.currentTimeMillis() - createdAt >= SUBSCRIBE_CONFIRM_MILLIS;
+        }
+
+        @Override
+        public synchronized void onMessage(Message message, byte[] pattern) {
+            version++;
+            notifyAll();
+        }
+
+        /**
+         * 获取当前通知版本 在尝试加锁之前获取, 尝试期间到达的通知不会丢失
+         *
+         * @return 通知版本
+         */
+        synchronized long version() {
+            return version;
+        }
+
+        /**
+         * 等待锁释放通知
+         *
+         * @param seen   尝试加锁前的通知版本
+         * @param millis 最长等待时间
+         */
+        synchronized void await(long seen, long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (version == seen && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.cgp.common.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁看门狗
+ * 由单个调度线程每隔 1/3 租期为本节点持有的所有锁续期, 所有锁的续期合并为一次脚本调用, 而不是每把锁一次.
+ * 支持两种持有方式: hash锁(字段为持有者)续期整个key, zset租约(成员为持有者, 分数为到期时间)续期成员的到期时间
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Slf4j
+class RedisLockWatchdog {
+
+    /**
+     * 批量续期脚本 锁仍由对应的持有者持有时续期
+     * ARGV[1]: 租期 ARGV[2]: 当前时间, 之后每把锁依次为 类型,持有者,key数量, 按顺序使用KEYS
+     * 类型h: hash锁, 持有者字段存在时重置key的过期时间
+     * 类型z: zset租约, 第一个key中持有者的租约存在时将到期时间延长一个租期, 并重置所有key的过期时间
+     */
+    private static final String RENEW_SCRIPT = "local lease = tonumber(ARGV[1]) " +
+            "local now = tonumber(ARGV[2]) " +
+            "local result = {} " +
+            "local k = 1 " +
+            "for i = 3, #ARGV, 3 do " +
+            "local owner = ARGV[i + 1] " +
+            "local n = tonumber(ARGV[i + 2]) " +
+            "local held = 0 " +
+            "if ARGV[i] == 'h' then " +
+            "if redis.call('hexists', KEYS[k], owner) == 1 then held = 1 end " +
+            "elseif redis.call('zscore', KEYS[k], owner) then " +
+            "redis.call('zadd', KEYS[k], now + lease, owner) held = 1 " +
+            "end " +
+            "if held == 1 then for j = k, k + n - 1 do redis.call('pexpire', KEYS[j], lease) end end " +
+            "result[#result + 1] = held " +
+            "k = k + n " +
+            "end " +
+            "return result";
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RENEW = new DefaultRedisScript<>(RENEW_SCRIPT, List.class);
+
+    /**
+     * 单次续期脚本最多包含的锁数量
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private static final String HASH = "h";
+    private static final String LEASE = "z";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long leaseMillis;
+
+    /**
+     * 需要续期的锁 key为 锁+持有者
+     */
+    private final Map<String, Renewal> renewals = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService scheduler;
+
+    RedisLockWatchdog(StringRedisTemplate stringRedisTemplate, long leaseMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.leaseMillis = leaseMillis;
+    }
+
+    long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * 开始为hash锁续期
+     *
+     * @param key   锁
+     * @param owner 持有者
+     */
+    void watch(String key, String owner) {
+        watch(new Renewal(HASH, owner, key));
+    }
+
+    /**
+     * 开始为zset租约续期
+     *
+     * @param owner 持有者
+     * @param keys  第一个为租约zset, 其余为随租约一同续期的key
+     */
+    void watchLease(String owner, String... keys) {
+        watch(new Renewal(LEASE, owner, keys));
+    }
+
+    /**
+     * 停止为锁续期
+     *
+     * @param key   锁或租约zset
+     * @param owner 持有者
+     */
+    void unwatch(String key, String owner) {
+        renewals.remove(key + ":" + owner);
+    }
+
+    private void watch(Renewal renewal) {
+        renewals.put(renewal.getId(), renewal);
+        start();
+    }
+
+    private void start() {
+        if (scheduler != null) {
+            return;
+        }
+        synchronized (this) {
+            if (scheduler == null) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "redis-lock-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                long period = Math.max(leaseMillis / 3, 1);
+                executor.scheduleWithFixedDelay(this::renewAll, period, period, TimeUnit.MILLISECONDS);
+                scheduler = executor;
+            }
+        }
+    }
+
+    void shutdown() {
+        ScheduledExecutorService executor = scheduler;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void renewAll() {
+        if (renewals.isEmpty()) {
+            return;
+        }
+        List<Renewal> batch = new ArrayList<>(Math.min(renewals.size(), BATCH_SIZE));
+        for (Renewal renewal : renewals.values()) {
+            batch.add(renewal);
+            if (batch.size() == BATCH_SIZE) {
+                renew(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            renew(batch);
+        }
+    }
+
+    private void renew(List<Renewal> batch) {
+        List<String> keys = new ArrayList<>(batch.size());
+        List<String> args = new ArrayList<>(batch.size() * 3 + 2);
+        args.add(String.valueOf(leaseMillis));
+        args.add(String.valueOf(System.currentTimeMillis()));
+        for (Renewal renewal : batch) {
+            Collections.addAll(keys, renewal.keys);
+            args.add(renewal.kind);
+            args.add(renewal.owner);
+            args.add(String.valueOf(renewal.keys.length));
+        }
+        try {
+            List<?> result = stringRedisTemplate.execute(RENEW, keys, args.toArray());
+            for (int i = 0; result != null && i < result.size(); i++) {
+                if (!Long.valueOf(1L).equals(result.get(i))) {
+                    Renewal renewal = batch.get(i);
+                    // 锁已过期或被删除, 不再续期
+                    renewals.remove(renewal.getId(), renewal);
+                    log.warn("分布式锁[{}]已失效, 停止续期", renewal.keys[0]);
+                }
+            }
+        } catch (Exception e) {
+            log.error("分布式锁续期失败, 锁数量:{}", batch.size(), e);
+        }
+    }
+
+    private static class Renewal {
+        private final String kind;
+        private final String owner;
+        private final String[] keys;
+
+        Renewal(String kind, String owner, String... keys) {
+            this.kind = kind;
+            this.owner = owner;
+            this.keys = keys;
+        }
+
+        String getId() {
+            return keys[0] + ":" + owner;
+        }
+    }
+}
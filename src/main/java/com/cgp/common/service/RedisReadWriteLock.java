@@ -0,0 +1,191 @@
+package com.cgp.common.service;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * 分布式读写锁
+ * 没有写锁时多个线程可以同时持有读锁, 写锁与任何读锁互斥. 持有写锁的线程可以再获取读锁(锁降级), 持有读锁时不能获取写锁.
+ * 写锁为hash key, 字段为持有者, 值为重入次数; 读锁的重入次数保存在 key:read, 每个读者的租约保存在zset key:read:lease,
+ * 读者进程退出后其租约在一个租期内过期, 不会永久阻塞写锁. 持有期间均由看门狗续期.
+ * 同一节点内竞争写锁的线程先在本地锁上排队.
+ * 通过 {@link RedisLock#getReadWriteLock(String)} 获取
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public class RedisReadWriteLock implements ReadWriteLock {
+
+    /**
+     * 清理已过期的读者
+     * KEYS[2]: 读锁重入次数 KEYS[3]: 读锁租约 ARGV[3]: 当前时间
+     */
+    private static final String PURGE_READERS = "local expired = redis.call('zrangebyscore', KEYS[3], '-inf', ARGV[3]) " +
+            "for _, reader in ipairs(expired) do redis.call('hdel', KEYS[2], reader) end " +
+            "redis.call('zremrangebyscore', KEYS[3], '-inf', ARGV[3]) ";
+
+    /**
+     * 读锁加锁脚本 没有写锁或写锁由当前持有者持有时重入次数加一, 并将租约延长一个租期
+     * KEYS[1]: 写锁 KEYS[2]: 读锁重入次数 KEYS[3]: 读锁租约 ARGV[1]: 租期 ARGV[2]: 持有者 ARGV[3]: 当前时间
+     * 返回 nil 表示加锁成功, 否则返回写锁的剩余过期时间
+     */
+    private static final String READ_LOCK_SCRIPT = PURGE_READERS +
+            "if redis.call('exists', KEYS[1]) == 1 and redis.call('hexists', KEYS[1], ARGV[2]) == 0 then " +
+            "return redis.call('pttl', KEYS[1]) " +
+            "end " +
+            "redis.call('hincrby', KEYS[2], ARGV[2], 1) " +
+            "redis.call('zadd', KEYS[3], tonumber(ARGV[3]) + tonumber(ARGV[1]), ARGV[2]) " +
+            "redis.call('pexpire', KEYS[2], ARGV[1]) " +
+            "redis.call('pexpire', KEYS[3], ARGV[1]) " +
+            "return nil";
+
+    /**
+     * 读锁解锁脚本 重入次数减一, 减到0时移除租约, 最后一个读者释放时发布通知
+     * KEYS[2]: 读锁重入次数 KEYS[3]: 读锁租约 ARGV[2]: 持有者 ARGV[4]: 通知频道
+     * 返回 -1: 当前持有者未持有读锁 0: 仍持有 1: 已释放
+     */
+    private static final String READ_UNLOCK_SCRIPT = "if redis.call('hexists', KEYS[2], ARGV[2]) == 0 then return -1 end " +
+            "if redis.call('hincrby', KEYS[2], ARGV[2], -1) > 0 then return 0 end " +
+            "redis.call('hdel', KEYS[2], ARGV[2]) " +
+            "redis.call('zrem', KEYS[3], ARGV[2]) " +
+            "if redis.call('zcard', KEYS[3]) == 0 then " +
+            "redis.call('del', KEYS[2], KEYS[3]) " +
+            "redis.call('publish', ARGV[4], 1) " +
+            "end " +
+            "return 1";
+
+    /**
+     * 写锁加锁脚本 当前持有者已持有写锁时直接重入(锁降级后持有的读锁不影响重入), 否则没有其他写者且没有读者时加锁.
+     * 成功时重入次数加一并重置过期时间
+     * 参数同读锁加锁脚本
+     * 返回 nil 表示加锁成功, 否则返回写锁的剩余过期时间或最晚的读锁租约的剩余时间
+     */
+    private static final String WRITE_LOCK_SCRIPT = PURGE_READERS +
+            "if redis.call('hexists', KEYS[1], ARGV[2]) == 1 then " +
+            "redis.call('hincrby', KEYS[1], ARGV[2], 1) " +
+            "redis.call('pexpire', KEYS[1], ARGV[1]) " +
+            "return nil " +
+            "end " +
+            "if redis.call('exists', KEYS[1]) == 1 then " +
+            "return redis.call('pttl', KEYS[1]) " +
+            "end " +
+            "local last = redis.call('zrevrange', KEYS[3], 0, 0, 'WITHSCORES') " +
+            "if last[2] then return tonumber(last[2]) - tonumber(ARGV[3]) end " +
+            "redis.call('hincrby', KEYS[1], ARGV[2], 1) " +
+            "redis.call('pexpire', KEYS[1], ARGV[1]) " +
+            "return nil";
+
+    private static final RedisScript<Long> READ_LOCK = new DefaultRedisScript<>(READ_LOCK_SCRIPT, Long.class);
+    private static final RedisScript<Long> READ_UNLOCK = new DefaultRedisScript<>(READ_UNLOCK_SCRIPT, Long.class);
+    private static final RedisScript<Long> WRITE_LOCK = new DefaultRedisScript<>(WRITE_LOCK_SCRIPT, Long.class);
+
+    private final String key;
+    private final String clientId;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisLockWatchdog watchdog;
+    private final List<String> keys;
+    private final ReadLock readLock;
+    private final WriteLock writeLock;
+
+    RedisReadWriteLock(String key, String clientId, StringRedisTemplate stringRedisTemplate,
+                       RedisLockWatchdog watchdog, RedisLockSubscriber subscriber, LocalLockRegistry localLocks) {
+        this.key = key;
+        this.clientId = clientId;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.watchdog = watchdog;
+        this.keys = Arrays.asList(key, key + ":read", key + ":read:lease");
+        this.readLock = new ReadLock(subscriber);
+        this.writeLock = new WriteLock(subscriber, localLocks);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    private Long execute(RedisScript<Long> script, String owner) {
+        return stringRedisTemplate.execute(script, keys, String.valueOf(watchdog.getLeaseMillis()), owner,
+                String.valueOf(System.currentTimeMillis()), RedisLockSubscriber.CHANNEL + key);
+    }
+
+    /**
+     * 读锁
+     */
+    private class ReadLock extends AbstractRedisLock {
+
+        ReadLock(RedisLockSubscriber subscriber) {
+            super(key, subscriber, null);
+        }
+
+        @Override
+        protected Long tryAcquire() {
+            String owner = getOwner(clientId);
+            Long ttl = execute(READ_LOCK, owner);
+            if (ttl == null) {
+                watchdog.watchLease(owner, keys.get(2), keys.get(1));
+            }
+            return ttl;
+        }
+
+        @Override
+        protected void release() {
+            String owner = getOwner(clientId);
+            Long result = execute(READ_UNLOCK, owner);
+            if (result == null || result < 0) {
+                throw notHeld(key);
+            }
+            if (result == 1) {
+                watchdog.unwatch(keys.get(2), owner);
+            }
+        }
+    }
+
+    /**
+     * 写锁
+     */
+    private class WriteLock extends AbstractRedisLock {
+
+        WriteLock(RedisLockSubscriber subscriber, LocalLockRegistry localLocks) {
+            super(key, subscriber, localLocks);
+        }
+
+        @Override
+        protected Long tryAcquire() {
+            String owner = getOwner(clientId);
+            Long ttl = execute(WRITE_LOCK, owner);
+            if (ttl == null) {
+                watchdog.watch(key, owner);
+            }
+            return ttl;
+        }
+
+        @Override
+        protected void release() {
+            String owner = getOwner(clientId);
+            Long result = stringRedisTemplate.execute(RedisReentrantLock.UNLOCK, Collections.singletonList(key),
+                    String.valueOf(watchdog.getLeaseMillis()), owner, RedisLockSubscriber.CHANNEL + key);
+            if (result == null || result < 0) {
+                throw notHeld(key);
+            }
+            if (result == 1) {
+                watchdog.unwatch(key, owner);
+            }
+        }
+    }
+}
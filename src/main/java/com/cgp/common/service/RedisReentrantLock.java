@@ -0,0 +1,91 @@
+package com.cgp.common.service;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Collections;
+
+/**
+ * 可重入分布式锁
+ * 锁为Redis hash, 字段为持有者(节点标识:线程id), 值为重入次数. 持有期间由看门狗自动续期,
+ * 持有者进程退出后锁在一个租期内自动过期.
+ * 同一节点内竞争同一把锁的线程先在本地锁上排队, 只有拿到本地锁的线程会请求Redis.
+ * 通过 {@link RedisLock#getLock(String)} 获取
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public class RedisReentrantLock extends AbstractRedisLock {
+
+    /**
+     * 加锁脚本 锁不存在或已由当前持有者持有时重入次数加一并重置过期时间
+     * KEYS[1]: 锁 ARGV[1]: 租期 ARGV[2]: 持有者
+     * 返回 nil 表示加锁成功, 否则返回锁的剩余过期时间
+     */
+    private static final String LOCK_SCRIPT = "if redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[2]) == 1 then " +
+            "redis.call('hincrby', KEYS[1], ARGV[2], 1) " +
+            "redis.call('pexpire', KEYS[1], ARGV[1]) " +
+            "return nil " +
+            "end " +
+            "return redis.call('pttl', KEYS[1])";
+
+    /**
+     * 解锁脚本 重入次数减一, 减到0时删除锁并向通知频道发布消息
+     * KEYS[1]: 锁 ARGV[1]: 租期 ARGV[2]: 持有者 ARGV[3]: 通知频道
+     * 返回 -1: 当前持有者未持有锁 0: 仍持有 1: 已释放
+     */
+    private static final String UNLOCK_SCRIPT = "if redis.call('hexists', KEYS[1], ARGV[2]) == 0 then return -1 end " +
+            "if redis.call('hincrby', KEYS[1], ARGV[2], -1) > 0 then " +
+            "redis.call('pexpire', KEYS[1], ARGV[1]) " +
+            "return 0 " +
+            "end " +
+            "redis.call('del', KEYS[1]) " +
+            "redis.call('publish', ARGV[3], 1) " +
+            "return 1";
+
+    private static final RedisScript<Long> LOCK = new DefaultRedisScript<>(LOCK_SCRIPT, Long.class);
+    static final RedisScript<Long> UNLOCK = new DefaultRedisScript<>(UNLOCK_SCRIPT, Long.class);
+
+    private final String key;
+    private final String clientId;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisLockWatchdog watchdog;
+
+    RedisReentrantLock(String key, String clientId, StringRedisTemplate stringRedisTemplate,
+                       RedisLockWatchdog watchdog, RedisLockSubscriber subscriber, LocalLockRegistry localLocks) {
+        super(key, subscriber, localLocks);
+        this.key = key;
+        this.clientId = clientId;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.watchdog = watchdog;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    protected void release() {
+        String owner = getOwner(clientId);
+        Long result = stringRedisTemplate.execute(UNLOCK, Collections.singletonList(key),
+                String.valueOf(watchdog.getLeaseMillis()), owner, RedisLockSubscriber.CHANNEL + key);
+        if (result == null || result < 0) {
+            throw notHeld(key);
+        }
+        if (result == 1) {
+            watchdog.unwatch(key, owner);
+        }
+    }
+
+    @Override
+    protected Long tryAcquire() {
+        String owner = getOwner(clientId);
+        Long ttl = stringRedisTemplate.execute(LOCK, Collections.singletonList(key),
+                String.valueOf(watchdog.getLeaseMillis()), owner);
+        if (ttl == null) {
+            watchdog.watch(key, owner);
+        }
+        return ttl;
+    }
+}
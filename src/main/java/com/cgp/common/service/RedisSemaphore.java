@@ -0,0 +1,145 @@
+package com.cgp.common.service;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分布式信号量
+ * 许可以租约的形式保存在zset中, 成员为租约id, 分数为到期时间. 持有期间由看门狗续期,
+ * 持有者进程退出后租约在一个租期内过期并归还许可. 使用同一信号量的所有节点须配置相同的许可数.
+ * 通过 {@link RedisLock#getSemaphore(String, int)} 获取
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public class RedisSemaphore {
+
+    /**
+     * 获取许可脚本 清理已过期的租约后, 租约数小于许可数时新增租约
+     * KEYS[1]: 租约 ARGV[1]: 许可数 ARGV[2]: 租约id ARGV[3]: 当前时间 ARGV[4]: 租期
+     * 返回 nil 表示获取成功, 否则返回最早到期的租约的剩余时间
+     */
+    private static final String ACQUIRE_SCRIPT = "redis.call('zremrangebyscore', KEYS[1], '-inf', ARGV[3]) " +
+            "if redis.call('zcard', KEYS[1]) < tonumber(ARGV[1]) then " +
+            "redis.call('zadd', KEYS[1], tonumber(ARGV[3]) + tonumber(ARGV[4]), ARGV[2]) " +
+            "redis.call('pexpire', KEYS[1], ARGV[4]) " +
+            "return nil " +
+            "end " +
+            "local first = redis.call('zrange', KEYS[1], 0, 0, 'WITHSCORES') " +
+            "if first[2] then return tonumber(first[2]) - tonumber(ARGV[3]) end " +
+            "return -1";
+
+    /**
+     * 归还许可脚本 删除租约并发布通知
+     * KEYS[1]: 租约 ARGV[1]: 租约id ARGV[2]: 通知频道
+     */
+    private static final String RELEASE_SCRIPT = "if redis.call('zrem', KEYS[1], ARGV[1]) == 1 then " +
+            "redis.call('publish', ARGV[2], 1) return 1 " +
+            "end " +
+            "return 0";
+
+    /**
+     * 可用许可数脚本
+     * KEYS[1]: 租约 ARGV[1]: 许可数 ARGV[2]: 当前时间
+     */
+    private static final String AVAILABLE_SCRIPT = "return tonumber(ARGV[1]) - redis.call('zcount', KEYS[1], '(' .. ARGV[2], '+inf')";
+
+    private static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>(ACQUIRE_SCRIPT, Long.class);
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>(RELEASE_SCRIPT, Long.class);
+    private static final RedisScript<Long> AVAILABLE = new DefaultRedisScript<>(AVAILABLE_SCRIPT, Long.class);
+
+    private final String key;
+    private final int permits;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisLockWatchdog watchdog;
+    private final RedisLockSubscriber subscriber;
+
+    RedisSemaphore(String key, int permits, StringRedisTemplate stringRedisTemplate,
+                   RedisLockWatchdog watchdog, RedisLockSubscriber subscriber) {
+        Assert.isTrue(permits > 0, "许可数必须大于0");
+        this.key = key;
+        this.permits = permits;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.watchdog = watchdog;
+        this.subscriber = subscriber;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    /**
+     * 尝试获取一个许可 不等待
+     *
+     * @return 租约id, 用于归还许可; 没有可用许可时返回null
+     */
+    public String tryAcquire() {
+        String leaseId = UUID.randomUUID().toString();
+        return acquire(leaseId) == null ? leaseId : null;
+    }
+
+    /**
+     * 获取一个许可 没有可用许可时等待许可归还通知
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     * @return 租约id, 用于归还许可; 等待超时返回null
+     * @throws InterruptedException 等待时线程被中断
+     */
+    public String tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        String leaseId = UUID.randomUUID().toString();
+        AtomicReference<String> acquired = new AtomicReference<>();
+        subscriber.acquire(key, Math.max(unit.toMillis(timeout), 0), Long.MAX_VALUE, () -> {
+            Long ttl = acquire(leaseId);
+            if (ttl == null) {
+                acquired.set(leaseId);
+            }
+            return ttl;
+        });
+        return acquired.get();
+    }
+
+    /**
+     * 归还许可
+     *
+     * @param leaseId 获取许可时返回的租约id
+     * @return 租约已过期时返回false
+     */
+    public boolean release(String leaseId) {
+        watchdog.unwatch(key, leaseId);
+        Long result = stringRedisTemplate.execute(RELEASE, Collections.singletonList(key),
+                leaseId, RedisLockSubscriber.CHANNEL + key);
+        return result != null && result == 1;
+    }
+
+    /**
+     * 当前可用的许可数
+     *
+     * @return 可用许可数
+     */
+    public long availablePermits() {
+        Long available = stringRedisTemplate.execute(AVAILABLE, Collections.singletonList(key),
+                String.valueOf(permits), String.valueOf(System.currentTimeMillis()));
+        return available == null ? permits : Math.max(available, 0);
+    }
+
+    private Long acquire(String leaseId) {
+        Long ttl = stringRedisTemplate.execute(ACQUIRE, Collections.singletonList(key), String.valueOf(permits),
+                leaseId, String.valueOf(System.currentTimeMillis()), String.valueOf(watchdog.getLeaseMillis()));
+        if (ttl == null) {
+            watchdog.watchLease(leaseId, key);
+        }
+        return ttl;
+    }
+}
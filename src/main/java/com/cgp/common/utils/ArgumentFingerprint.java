@@ -0,0 +1,256 @@
+package com.cgp.common.utils;
+
+import org.springframework.validation.Errors;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 方法参数指纹
+ * 按字段遍历参数对象, 将字段值直接写入 {@link Murmur3Hasher}, 不调用 toString, 也不拼接中间字符串.
+ * 每个类的字段列表只反射一次; 请求、响应、输入输出流等与请求内容无关的参数不参与计算.
+ * 数组与List按顺序计算; Map与其他集合的每个元素单独计算哈希后相加, 结果与遍历顺序无关
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public class ArgumentFingerprint {
+
+    /**
+     * 对象嵌套的最大深度
+     */
+    private static final int MAX_DEPTH = 16;
+
+    private static final Class<?>[] IGNORED_TYPES = {ServletRequest.class, ServletResponse.class, HttpSession.class,
+            Errors.class, InputStream.class, OutputStream.class, Reader.class, Writer.class};
+
+    private static final Map<Class<?>, Field[]> FIELD_CACHE = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Murmur3Hasher> HASHER = ThreadLocal.withInitial(Murmur3Hasher::new);
+
+    private ArgumentFingerprint() {
+    }
+
+    /**
+     * 计算参数指纹
+     *
+     * @param scope   作用域 例如方法签名, 不同作用域的相同参数得到不同的指纹
+     * @param args    方法参数
+     * @param indexes 参与计算的参数下标, 为空时所有参数都参与
+     * @param fields  参数对象中参与计算的字段名, 为空时所有字段都参与, 只对参数对象本身的字段生效
+     * @return 32位十六进制字符串
+     */
+    public static String of(String scope, Object[] args, int[] indexes, Set<String> fields) {
+        Murmur3Hasher hasher = HASHER.get().reset();
+        hasher.putChars(scope);
+        // 当前遍历路径上的对象 遇到循环引用时只写入标记, 不再展开
+        Set<Object> path = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (indexes == null || indexes.length == 0) {
+            for (Object arg : args) {
+                putArgument(hasher, arg, fields, path);
+            }
+        } else {
+            for (int index : indexes) {
+                putArgument(hasher, index < args.length ? args[index] : null, fields, path);
+            }
+        }
+        return hasher.toHex();
+    }
+
+    private static void putArgument(Murmur3Hasher hasher, Object arg, Set<String> fields, Set<Object> path) {
+        if (arg != null && isIgnored(arg.getClass())) {
+            return;
+        }
+        if (fields == null || fields.isEmpty() || arg == null || isValue(arg.getClass()) || arg instanceof MultipartFile) {
+            put(hasher, arg, 0, path);
+            return;
+        }
+        path.add(arg);
+        hasher.putByte('{');
+        for (Field field : getFields(arg.getClass())) {
+            if (fields.contains(field.getName())) {
+                putField(hasher, arg, field, 0, path);
+            }
+        }
+        hasher.putByte('}');
+        path.remove(arg);
+    }
+
+    private static void put(Murmur3Hasher hasher, Object value, int depth, Set<Object> path) {
+        if (value == null) {
+            hasher.putByte(0);
+            return;
+        }
+        if (depth > MAX_DEPTH) {
+            hasher.putByte('#');
+            return;
+        }
+        Class<?> type = value.getClass();
+        if (value instanceof CharSequence) {
+            hasher.putByte('s').putInt(((CharSequence) value).length()).putChars((CharSequence) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            hasher.putByte('l').putLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            hasher.putByte('d').putLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof Boolean) {
+            hasher.putByte((Boolean) value ? 'T' : 'F');
+        } else if (value instanceof Character) {
+            hasher.putByte('c').putInt((Character) value);
+        } else if (value instanceof Enum) {
+            hasher.putByte('e').putChars(((Enum<?>) value).name());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            hasher.putByte('b').putInt(bytes.length).putBytes(bytes);
+        } else if (value instanceof MultipartFile) {
+            // 上传文件只取文件名与大小, 不读取内容
+            MultipartFile file = (MultipartFile) value;
+            hasher.putByte('f').putChars(file.getName()).putByte(0)
+                    .putChars(String.valueOf(file.getOriginalFilename())).putLong(file.getSize());
+        } else if (isIgnored(type)) {
+            hasher.putByte('#');
+        } else if (type.isArray() || value instanceof Collection || value instanceof Map || !isValue(type)) {
+            // 数组、集合与普通对象可能循环引用, 已在当前路径上的对象只写入标记
+            if (!path.add(value)) {
+                hasher.putByte('@');
+                return;
+            }
+            putComposite(hasher, value, depth, path);
+            path.remove(value);
+        } else {
+            // BigDecimal、日期等值类型的toString包含完整的值
+            hasher.putByte('v').putChars(value.toString());
+        }
+    }
+
+    private static void putComposite(Murmur3Hasher hasher, Object value, int depth, Set<Object> path) {
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            hasher.putByte('[').putInt(length);
+            for (int i = 0; i < length; i++) {
+                put(hasher, Array.get(value, i), depth + 1, path);
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            hasher.putByte('[').putInt(list.size());
+            for (Object element : list) {
+                put(hasher, element, depth + 1, path);
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            Murmur3Hasher element = new Murmur3Hasher();
+            long low = 0;
+            long high = 0;
+            for (Object item : collection) {
+                put(element.reset(), item, depth + 1, path);
+                long[] hash = element.toLongs();
+                low += hash[0];
+                high += hash[1];
+            }
+            hasher.putByte('<').putInt(collection.size()).putLong(low).putLong(high);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            Murmur3Hasher entry = new Murmur3Hasher();
+            long low = 0;
+            long high = 0;
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                put(entry.reset(), e.getKey(), depth + 1, path);
+                put(entry, e.getValue(), depth + 1, path);
+                long[] hash = entry.toLongs();
+                low += hash[0];
+                high += hash[1];
+            }
+            hasher.putByte('m').putInt(map.size()).putLong(low).putLong(high);
+        } else {
+            hasher.putByte('{');
+            for (Field field : getFields(value.getClass())) {
+                putField(hasher, value, field, depth + 1, path);
+            }
+            hasher.putByte('}');
+        }
+    }
+
+    private static void putField(Murmur3Hasher hasher, Object target, Field field, int depth, Set<Object> path) {
+        try {
+            Class<?> type = field.getType();
+            if (type == long.class) {
+                hasher.putLong(field.getLong(target));
+            } else if (type == int.class) {
+                hasher.putInt(field.getInt(target));
+            } else if (type == boolean.class) {
+                hasher.putByte(field.getBoolean(target) ? 1 : 0);
+            } else if (type == double.class) {
+                hasher.putLong(Double.doubleToLongBits(field.getDouble(target)));
+            } else if (type == float.class) {
+                hasher.putInt(Float.floatToIntBits(field.getFloat(target)));
+            } else if (type == short.class) {
+                hasher.putInt(field.getShort(target));
+            } else if (type == byte.class) {
+                hasher.putByte(field.getByte(target));
+            } else if (type == char.class) {
+                hasher.putInt(field.getChar(target));
+            } else {
+                put(hasher, field.get(target), depth, path);
+            }
+        } catch (IllegalAccessException e) {
+            hasher.putByte('#');
+        }
+    }
+
+    /**
+     * 类及其父类的所有实例字段 按字段名排序, 保证不同JVM中的遍历顺序一致
+     */
+    private static Field[] getFields(Class<?> type) {
+        Field[] fields = FIELD_CACHE.get(type);
+        if (fields == null) {
+            fields = FIELD_CACHE.computeIfAbsent(type, ArgumentFingerprint::resolveFields);
+        }
+        return fields;
+    }
+
+    private static Field[] resolveFields(Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    fields.add(field);
+                } catch (RuntimeException e) {
+                    // 无法访问的字段不参与计算
+                }
+            }
+        }
+        fields.sort(Comparator.comparing(Field::getName).thenComparing(f -> f.getDeclaringClass().getName()));
+        return fields.toArray(new Field[0]);
+    }
+
+    /**
+     * JDK中的其他类型按值处理, 不反射其内部字段
+     */
+    private static boolean isValue(Class<?> type) {
+        return type.isPrimitive() || type.getName().startsWith("java.") || type.getName().startsWith("javax.");
+    }
+
+    private static boolean isIgnored(Class<?> type) {
+        for (Class<?> ignored : IGNORED_TYPES) {
+            if (ignored.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
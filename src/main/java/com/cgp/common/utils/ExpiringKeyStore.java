@@ -0,0 +1,195 @@
+package com.cgp.common.utils;
+
+import org.springframework.util.Assert;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有容量上限的过期key存储
+ * 过期时间按时间轮分槽保存, 设置过期时间只是向对应的槽追加一个元素, 由单个线程每个刻度处理一个槽,
+ * 不会为每个key单独提交定时任务. 超过时间轮一圈的key在经过的槽中保留, 到期后才移除.
+ * 没有设置过期时间的key一直保留, 直到设置过期时间或被移除. 达到容量上限时优先淘汰最早到期的key,
+ * 所有key都未设置过期时间时拒绝写入
+ *
+ * @param <K> key
+ * @param <V> value
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public class ExpiringKeyStore<K, V> {
+
+    private final int capacity;
+    private final long tickMillis;
+    private final Queue<Entry<K, V>>[] wheel;
+    private final int mask;
+    private final Map<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ScheduledExecutorService executor;
+    /**
+     * 上次处理到的刻度 只由处理线程修改
+     */
+    private long lastTick;
+
+    /**
+     * @param capacity   容量上限
+     * @param tickMillis 时间轮刻度 单位:毫秒
+     * @param wheelSize  时间轮槽数 会向上取整为2的幂
+     */
+    @SuppressWarnings("unchecked")
+    public ExpiringKeyStore(int capacity, long tickMillis, int wheelSize) {
+        Assert.isTrue(capacity > 0, "capacity必须大于0");
+        Assert.isTrue(tickMillis > 0, "tickMillis必须大于0");
+        Assert.isTrue(wheelSize > 0 && wheelSize <= 1 << 20, "wheelSize必须在1到1048576之间");
+        int size = Integer.highestOneBit(wheelSize - 1 == 0 ? 1 : wheelSize - 1) << 1;
+        this.capacity = capacity;
+        this.tickMillis = tickMillis;
+        this.wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.mask = size - 1;
+        this.lastTick = System.currentTimeMillis() / tickMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "expiring-key-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 不存在时写入 不设置过期时间
+     *
+     * @param key   key
+     * @param value value
+     * @return 写入成功返回true, key已存在或容量已满时返回false
+     */
+    public boolean putIfAbsent(K key, V value) {
+        if (entries.size() >= capacity && !evict()) {
+            return false;
+        }
+        return entries.putIfAbsent(key, new Entry<>(key, value)) == null;
+    }
+
+    /**
+     * 设置过期时间
+     *
+     * @param key         key
+     * @param delayMillis 多久后过期 单位:毫秒, 不大于0时立即移除
+     * @return key不存在时返回false
+     */
+    public boolean expire(K key, long delayMillis) {
+        Entry<K, V> entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (delayMillis <= 0) {
+            entries.remove(key, entry);
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + delayMillis;
+        entry.deadline = deadline;
+        wheel[(int) ((deadline + tickMillis - 1) / tickMillis) & mask].offer(entry);
+        return true;
+    }
+
+    public V get(K key) {
+        Entry<K, V> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public V remove(K key) {
+        Entry<K, V> entry = entries.remove(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * 当前的key数量
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 因容量已满被淘汰的key数量
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 处理从上次处理到当前之间的槽, 落后超过一圈时每个槽只处理一次
+     */
+    private void advance() {
+        long now = System.currentTimeMillis();
+        long tick = now / tickMillis;
+        long from = Math.max(lastTick + 1, tick - mask);
+        for (long t = from; t <= tick; t++) {
+            expireSlot(wheel[(int) t & mask], now);
+        }
+        lastTick = tick;
+    }
+
+    private void expireSlot(Queue<Entry<K, V>> slot, long now) {
+        Iterator<Entry<K, V>> iterator = slot.iterator();
+        while (iterator.hasNext()) {
+            Entry<K, V> entry = iterator.next();
+            long deadline = entry.deadline;
+            if (deadline <= now) {
+                iterator.remove();
+                entries.remove(entry.key, entry);
+            } else if (entries.get(entry.key) != entry) {
+                // 已被移除或重新写入
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 从即将处理的槽开始淘汰一个已设置过期时间的key
+     */
+    private boolean evict() {
+        long tick = System.currentTimeMillis() / tickMillis;
+        for (int i = 0; i <= mask; i++) {
+            Queue<Entry<K, V>> slot = wheel[(int) (tick + i) & mask];
+            Entry<K, V> entry;
+            while ((entry = slot.poll()) != null) {
+                if (entries.remove(entry.key, entry)) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static class Entry<K, V> {
+        private final K key;
+        private final V value;
+        /**
+         * 到期时间 未设置过期时间时为Long.MAX_VALUE
+         */
+        private volatile long deadline = Long.MAX_VALUE;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
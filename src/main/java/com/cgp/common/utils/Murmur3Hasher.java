@@ -0,0 +1,183 @@
+package com.cgp.common.utils;
+
+/**
+ * 流式 MurmurHash3 x64 128位哈希
+ * 数据按写入顺序逐块计算, 不需要先拼接成完整的字节数组. 非线程安全, 可以通过 {@link #reset()} 重复使用
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public class Murmur3Hasher {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long seed;
+    private final byte[] buffer = new byte[16];
+    private int position;
+    private long length;
+    private long h1;
+    private long h2;
+
+    public Murmur3Hasher() {
+        this(0);
+    }
+
+    public Murmur3Hasher(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    public Murmur3Hasher reset() {
+        h1 = seed;
+        h2 = seed;
+        position = 0;
+        length = 0;
+        return this;
+    }
+
+    public Murmur3Hasher putByte(int b) {
+        buffer[position++] = (byte) b;
+        length++;
+        if (position == 16) {
+            bmix(getLong(0), getLong(8));
+            position = 0;
+        }
+        return this;
+    }
+
+    public Murmur3Hasher putBytes(byte[] bytes) {
+        for (byte b : bytes) {
+            putByte(b);
+        }
+        return this;
+    }
+
+    public Murmur3Hasher putInt(int value) {
+        for (int i = 0; i < 4; i++) {
+            putByte(value >>> (i * 8));
+        }
+        return this;
+    }
+
+    public Murmur3Hasher putLong(long value) {
+        for (int i = 0; i < 8; i++) {
+            putByte((int) (value >>> (i * 8)));
+        }
+        return this;
+    }
+
+    /**
+     * 写入字符 每个字符按两个字节写入, 不做编码转换
+     */
+    public Murmur3Hasher putChars(CharSequence chars) {
+        for (int i = 0, n = chars.length(); i < n; i++) {
+            char c = chars.charAt(i);
+            putByte(c);
+            putByte(c >>> 8);
+        }
+        return this;
+    }
+
+    /**
+     * 计算哈希值 之后需要 {@link #reset()} 才能再次使用
+     *
+     * @return 32位十六进制字符串
+     */
+    public String toHex() {
+        finish();
+        char[] chars = new char[32];
+        writeHex(chars, 0, h1);
+        writeHex(chars, 16, h2);
+        return new String(chars);
+    }
+
+    /**
+     * 计算128位哈希值 之后需要 {@link #reset()} 才能再次使用
+     *
+     * @return 长度为2的数组, 依次为哈希值的低64位与高64位
+     */
+    public long[] toLongs() {
+        finish();
+        return new long[]{h1, h2};
+    }
+
+    private void finish() {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = position - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (buffer[i] & 0xffL);
+        }
+        for (int i = Math.min(position, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (buffer[i] & 0xffL);
+        }
+        if (position > 8) {
+            h2 ^= mixK2(k2);
+        }
+        if (position > 0) {
+            h1 ^= mixK1(k1);
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+    }
+
+    private void bmix(long k1, long k2) {
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private long getLong(int offset) {
+        long value = 0;
+        for (int i = offset + 7; i >= offset; i--) {
+            value = (value << 8) | (buffer[i] & 0xffL);
+        }
+        return value;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * 按小端序输出, 与常见实现的十六进制结果一致
+     */
+    private static void writeHex(char[] chars, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            int b = (int) (value >>> (i * 8)) & 0xff;
+            chars[offset + i * 2] = HEX[b >>> 4];
+            chars[offset + i * 2 + 1] = HEX[b & 0xf];
+        }
+    }
+}
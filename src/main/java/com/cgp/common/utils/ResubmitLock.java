@@ -3,14 +3,9 @@ package com.cgp.common.utils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.digest.DigestUtils;
 
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
 /**
  * 重复提交锁,锁是在本地使用并发map进行了上锁处理，可以改为redis使用redis锁进行操作
+ * 延时释放由 {@link ExpiringKeyStore} 的时间轮统一处理, 锁的数量有上限
  *
  * @author Manaphy
  * @date 2020-08-27
@@ -18,8 +13,15 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class ResubmitLock {
 
-    private static final ConcurrentHashMap<String, Object> LOCK_CACHE = new ConcurrentHashMap<>(200);
-    private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(5, new ThreadPoolExecutor.DiscardPolicy());
+    /**
+     * 锁数量上限
+     */
+    private static final int MAX_LOCKS = 100000;
+
+    /**
+     * 时间轮刻度10ms, 1024个槽, 一圈约10秒
+     */
+    private static final ExpiringKeyStore<String, Object> LOCK_CACHE = new ExpiringKeyStore<>(MAX_LOCKS, 10, 1024);
 
     private ResubmitLock() {
     }
@@ -48,22 +50,34 @@ public class ResubmitLock {
      * @return boolean
      */
     public boolean lock(final String key, Object value) {
-        return Objects.isNull(LOCK_CACHE.putIfAbsent(key, value));
+        return LOCK_CACHE.putIfAbsent(key, value);
     }
 
     /**
      * 延时释放锁 用以控制短时间内的重复提交
      *
-     * @param lock         是否需要解锁
-     * @param key          对应的key
-     * @param delaySeconds 延时时间
+     * @param lock        是否需要解锁
+     * @param key         对应的key
+     * @param delayMillis 延时时间 单位:毫秒
      */
-    public void unLock(final boolean lock, final String key, final int delaySeconds) {
+    public void unLock(final boolean lock, final String key, final int delayMillis) {
         if (lock) {
-            EXECUTOR.schedule(() -> {
-                LOCK_CACHE.remove(key);
-            }, delaySeconds, TimeUnit.MILLISECONDS);
+            LOCK_CACHE.expire(key, delayMillis);
         }
     }
 
+    /**
+     * 当前持有的锁数量
+     */
+    public int size() {
+        return LOCK_CACHE.size();
+    }
+
+    /**
+     * 因数量达到上限被提前释放的锁数量
+     */
+    public long getEvictionCount() {
+        return LOCK_CACHE.getEvictionCount();
+    }
+
 }
@@ -0,0 +1,281 @@
+package com.cgp.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮
+ * 第一层每格 tickMs, 超出本层范围的任务放入上一层(每格为下一层的一圈), 到期时逐层降级直至触发.
+ * 插入为O(1), 只有非空的格子会进入 {@link DelayQueue}, 工作线程按最近到期的格子精确唤醒, 无需空转.
+ * 到期处理在释放锁之后执行, 处理缓慢不会阻塞其他线程添加任务.
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Slf4j
+public class TimingWheel<T> {
+
+    private final Consumer<T> handler;
+    private final DelayQueue<Bucket<T>> delayQueue = new DelayQueue<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Level<T> root;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * 创建并启动时间轮
+     *
+     * @param name      工作线程名称
+     * @param tickMs    每格时间 单位:毫秒
+     * @param wheelSize 每层格数
+     * @param handler   到期处理, 在工作线程中执行, 执行期间不持有时间轮的锁
+     */
+    public TimingWheel(String name, long tickMs, int wheelSize, Consumer<T> handler) {
+        this.handler = handler;
+        long now = System.currentTimeMillis();
+        this.root = new Level<>(tickMs, wheelSize, now - now % tickMs, delayQueue);
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 添加定时任务, 已到期的任务直接在调用线程中触发
+     *
+     * @param item     任务
+     * @param expireAt 到期时间戳 单位:毫秒
+     * @return 时间轮已停止时返回false
+     */
+    public boolean add(T item, long expireAt) {
+        Entry<T> entry = new Entry<>(item, expireAt);
+        boolean expired;
+        lock.readLock().lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            size.incrementAndGet();
+            expired = !root.add(entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (expired) {
+            fire(entry);
+        }
+        return true;
+    }
+
+    /**
+     * 未到期的任务数
+     *
+     * @return int
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 停止时间轮
+     *
+     * @return 尚未到期的任务
+     */
+    public List<T> stop() {
+        List<T> remaining = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            running = false;
+            worker.interrupt();
+            for (Level<T> level = root; level != null; level = level.overflow) {
+                for (Bucket<T> bucket : level.buckets) {
+                    bucket.flush(entry -> remaining.add(entry.item));
+                }
+            }
+            delayQueue.clear();
+            size.set(0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return remaining;
+    }
+
+    private void run() {
+        List<Entry<T>> expired = new ArrayList<>();
+        while (running) {
+            try {
+                Bucket<T> bucket = delayQueue.take();
+                lock.writeLock().lock();
+                try {
+                    while (bucket != null && running) {
+                        root.advanceClock(bucket.getExpiration());
+                        bucket.flush(entry -> reinsert(entry, expired));
+                        bucket = delayQueue.poll();
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                // 释放锁之后再触发到期任务
+                for (Entry<T> entry : expired) {
+                    handle(entry);
+                }
+                expired.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 上层格子到期后任务降级到下层, 已到期的放入待触发列表
+     */
+    private void reinsert(Entry<T> entry, List<Entry<T>> expired) {
+        if (!root.add(entry)) {
+            size.decrementAndGet();
+            expired.add(entry);
+        }
+    }
+
+    private void fire(Entry<T> entry) {
+        size.decrementAndGet();
+        handle(entry);
+    }
+
+    private void handle(Entry<T> entry) {
+        try {
+            handler.accept(entry.item);
+        } catch (Exception e) {
+            log.error("时间轮任务执行异常", e);
+        }
+    }
+
+    /**
+     * 时间轮的一层
+     */
+    private static class Level<T> {
+        private final long tickMs;
+        private final int wheelSize;
+        private final long interval;
+        private final Bucket<T>[] buckets;
+        private final DelayQueue<Bucket<T>> delayQueue;
+        private volatile long currentTime;
+        private volatile Level<T> overflow;
+
+        @SuppressWarnings("unchecked")
+        Level(long tickMs, int wheelSize, long startMs, DelayQueue<Bucket<T>> delayQueue) {
+            this.tickMs = tickMs;
+            this.wheelSize = wheelSize;
+            this.interval = tickMs * wheelSize;
+            this.currentTime = startMs - startMs % tickMs;
+            this.delayQueue = delayQueue;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket<>();
+            }
+        }
+
+        /**
+         * @return 已到期时返回false
+         */
+        boolean add(Entry<T> entry) {
+            long expireAt = entry.expireAt;
+            if (expireAt < currentTime + tickMs) {
+                return false;
+            }
+            if (expireAt < currentTime + interval) {
+                long virtualId = expireAt / tickMs;
+                Bucket<T> bucket = buckets[(int) (virtualId % wheelSize)];
+                bucket.add(entry);
+                // 格子被复用为新的一圈时才需要重新放入延迟队列
+                if (bucket.setExpiration(virtualId * tickMs)) {
+                    delayQueue.offer(bucket);
+                }
+                return true;
+            }
+            return getOverflow().add(entry);
+        }
+
+        void advanceClock(long timeMs) {
+            if (timeMs >= currentTime + tickMs) {
+                currentTime = timeMs - timeMs % tickMs;
+                if (overflow != null) {
+                    overflow.advanceClock(currentTime);
+                }
+            }
+        }
+
+        private Level<T> getOverflow() {
+            if (overflow == null) {
+                synchronized (this) {
+                    if (overflow == null) {
+                        overflow = new Level<>(interval, wheelSize, currentTime, delayQueue);
+                    }
+                }
+            }
+            return overflow;
+        }
+    }
+
+    /**
+     * 时间格, 保存同一时间段内到期的任务
+     */
+    private static class Bucket<T> implements Delayed {
+        private final AtomicLong expiration = new AtomicLong(-1L);
+        private Entry<T> head;
+
+        synchronized void add(Entry<T> entry) {
+            entry.next = head;
+            head = entry;
+        }
+
+        synchronized void flush(Consumer<Entry<T>> consumer) {
+            Entry<T> entry = head;
+            head = null;
+            expiration.set(-1L);
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                entry.next = null;
+                consumer.accept(entry);
+                entry = next;
+            }
+        }
+
+        boolean setExpiration(long expireMs) {
+            return expiration.getAndSet(expireMs) != expireMs;
+        }
+
+        long getExpiration() {
+            return expiration.get();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Math.max(getExpiration() - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(getExpiration(), ((Bucket<?>) o).getExpiration());
+        }
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private final long expireAt;
+        private Entry<T> next;
+
+        Entry(T item, long expireAt) {
+            this.item = item;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.cgp.common.weblog;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 将web日志追加到本地分段文件
+ * 每行一条日志, 文件达到大小上限后切换到新的分段, 分段以创建时间命名, 只保留最近的若干个分段,
+ * 可以由采集程序按分段顺序读取后转发
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Slf4j
+public class FileSpoolWebLogSink implements WebLogSink {
+
+    private static final String PREFIX = "weblog-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final long segmentSize;
+    private final int segments;
+
+    private FileChannel channel;
+    private long written;
+    private long lastSegment;
+
+    /**
+     * @param dir         分段文件目录
+     * @param segmentSize 单个分段文件的大小上限 单位:字节
+     * @param segments    保留的分段文件数量
+     */
+    public FileSpoolWebLogSink(String dir, long segmentSize, int segments) {
+        this.dir = Paths.get(dir);
+        this.segmentSize = segmentSize;
+        this.segments = Math.max(segments, 1);
+    }
+
+    @Override
+    public synchronized void write(List<String> lines) throws IOException {
+        StringBuilder builder = new StringBuilder(lines.size() * 256);
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+        if (channel == null || written >= segmentSize) {
+            roll();
+        }
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+    }
+
+    private void roll() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Files.createDirectories(dir);
+        // 同一毫秒内切换时保证分段名递增
+        long segment = Math.max(System.currentTimeMillis(), lastSegment + 1);
+        lastSegment = segment;
+        channel = FileChannel.open(dir.resolve(PREFIX + segment + SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        written = channel.size();
+        deleteOldSegments();
+    }
+
+    private void deleteOldSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        if (files.size() <= segments) {
+            return;
+        }
+        // 分段名中的时间位数相同, 按文件名排序即按创建顺序排序
+        Collections.sort(files);
+        for (int i = 0; i < files.size() - segments; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("关闭web日志分段文件失败", e);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.cgp.common.weblog;
+
+import com.cgp.common.aspect.WebLogAspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 通过slf4j输出web日志
+ * 沿用 {@link WebLogAspect} 的logger名称, 已有的日志配置不需要修改
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public class LoggerWebLogSink implements WebLogSink {
+
+    private static final Logger log = LoggerFactory.getLogger(WebLogAspect.class);
+
+    @Override
+    public void write(List<String> lines) {
+        for (String line : lines) {
+            log.info(line);
+        }
+    }
+}
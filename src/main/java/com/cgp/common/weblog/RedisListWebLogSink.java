@@ -0,0 +1,37 @@
+package com.cgp.common.weblog;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+
+/**
+ * 将web日志写入Redis list 供其他服务消费
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public class RedisListWebLogSink implements WebLogSink {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String key;
+    private final long maxLength;
+
+    /**
+     * @param stringRedisTemplate redis
+     * @param key                 list的key
+     * @param maxLength           保留的最大日志数 0表示不限制
+     */
+    public RedisListWebLogSink(StringRedisTemplate stringRedisTemplate, String key, long maxLength) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = key;
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public void write(List<String> lines) {
+        Long length = stringRedisTemplate.opsForList().rightPushAll(key, lines);
+        if (maxLength > 0 && length != null && length > maxLength) {
+            stringRedisTemplate.opsForList().trim(key, -maxLength, -1);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.cgp.common.weblog;
+
+import com.cgp.common.entity.WebLog;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.RawValue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * web日志异步分发
+ * 请求线程通过 {@link #snapshot(Object)} 将请求参数与返回结果转为长度有限的json快照, 再把 {@link WebLog} 放入无锁环形缓冲区,
+ * 缓冲区中不保留请求参数与返回对象的引用. 后台线程每次取出一批日志, 用共享的 {@link ObjectWriter} 序列化后
+ * 批量写入所有 {@link WebLogSink}, 缓冲区已满时丢弃新的日志并计数, 不阻塞请求线程.
+ * 缓冲区为空时后台线程休眠, 由提交日志的线程唤醒
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+@Slf4j
+public class WebLogDispatcher implements DisposableBean {
+
+    /**
+     * 后台线程最长休眠时间 只是丢失唤醒时的兜底
+     */
+    private static final long MAX_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final WebLogRingBuffer<WebLog> buffer;
+    private final List<WebLogSink> sinks;
+    private final int batchSize;
+    private final int maxFieldLength;
+    private final ObjectWriter writer;
+    private final ObjectWriter valueWriter;
+    private final Thread[] workers;
+    /**
+     * 每个后台线程是否正在休眠 1表示休眠
+     */
+    private final AtomicIntegerArray idle;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * @param sinks          输出目标
+     * @param bufferSize     缓冲区大小
+     * @param workers        后台线程数
+     * @param batchSize      单次批量输出的最大日志数
+     * @param maxFieldLength 请求参数与返回结果快照的最大长度
+     */
+    public WebLogDispatcher(List<WebLogSink> sinks, int bufferSize, int workers, int batchSize, int maxFieldLength) {
+        Assert.isTrue(bufferSize > 0, "bufferSize必须大于0");
+        Assert.isTrue(workers > 0, "workers必须大于0");
+        Assert.isTrue(batchSize > 0, "batchSize必须大于0");
+        Assert.isTrue(maxFieldLength > 0, "maxFieldLength必须大于0");
+        this.buffer = new WebLogRingBuffer<>(bufferSize);
+        this.sinks = new ArrayList<>(sinks);
+        this.batchSize = batchSize;
+        this.maxFieldLength = maxFieldLength;
+        ObjectMapper mapper = new ObjectMapper().disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        this.writer = mapper.writerFor(WebLog.class);
+        this.valueWriter = mapper.writer();
+        this.workers = new Thread[workers];
+        this.idle = new AtomicIntegerArray(workers);
+        for (int i = 0; i < workers; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> work(index), "weblog-dispatcher-" + i);
+            thread.setDaemon(true);
+            this.workers[i] = thread;
+        }
+        for (Thread thread : this.workers) {
+            thread.start();
+        }
+    }
+
+    /**
+     * 在请求线程中生成请求参数或返回结果的json快照
+     * 依赖请求作用域的对象(延迟加载的实体、上传的临时文件等)只能在请求线程中序列化, 快照不再引用原对象
+     *
+     * @param value 请求参数或返回结果
+     * @return 不超过最大长度时为原样输出的json, 超过时为截断后的字符串, 无法转json时返回null
+     */
+    public Object snapshot(Object value) {
+        if (value == null) {
+            return null;
+        }
+        String json;
+        try {
+            json = valueWriter.writeValueAsString(value);
+        } catch (JsonProcessingException | RuntimeException e) {
+            // 防止某些对象无法转json, 日志中去掉该字段
+            return null;
+        }
+        if (json.length() <= maxFieldLength) {
+            return new RawValue(json);
+        }
+        return json.substring(0, maxFieldLength) + "...(" + json.length() + ")";
+    }
+
+    /**
+     * 提交日志 不阻塞
+     *
+     * @param webLog 日志 请求参数与返回结果应为 {@link #snapshot(Object)} 生成的快照, 提交后不应再修改
+     * @return 缓冲区已满或已关闭时返回false
+     */
+    public boolean publish(WebLog webLog) {
+        if (!running || !buffer.offer(webLog)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        // 唤醒一个正在休眠的后台线程
+        for (int i = 0; i < workers.length; i++) {
+            if (idle.get(i) == 1 && idle.compareAndSet(i, 1, 0)) {
+                LockSupport.unpark(workers[i]);
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 因缓冲区已满或已关闭被丢弃的日志数量
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void work(int index) {
+        List<String> lines = new ArrayList<>(batchSize);
+        while (running) {
+            if (drain(lines) > 0) {
+                continue;
+            }
+            // 先标记休眠再检查缓冲区, 标记之后提交的日志一定会唤醒本线程
+            idle.set(index, 1);
+            if (running && buffer.isEmpty()) {
+                LockSupport.parkNanos(this, MAX_IDLE_NANOS);
+            }
+            idle.set(index, 0);
+        }
+        // 关闭时输出剩余的日志
+        int drained;
+        do {
+            drained = drain(lines);
+        } while (drained > 0);
+    }
+
+    private int drain(List<String> lines) {
+        WebLog webLog;
+        while (lines.size() < batchSize && (webLog = buffer.poll()) != null) {
+            try {
+                lines.add(writer.writeValueAsString(webLog));
+            } catch (JsonProcessingException e) {
+                log.warn("web日志序列化失败: {}", webLog.getClassMethod(), e);
+            }
+        }
+        int size = lines.size();
+        if (size > 0) {
+            for (WebLogSink sink : sinks) {
+                try {
+                    sink.write(lines);
+                } catch (Exception e) {
+                    log.error("web日志输出失败: {}", sink.getClass().getName(), e);
+                }
+            }
+            lines.clear();
+        }
+        return size;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        for (WebLogSink sink : sinks) {
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.cgp.common.weblog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁环形缓冲区 支持多生产者多消费者
+ * 每个槽位带一个序号, 生产者与消费者各自通过CAS推进位置, 序号表明槽位当前可写还是可读
+ *
+ * @param <E> 元素
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+class WebLogRingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    WebLogRingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 写入元素
+     *
+     * @return 缓冲区已满时返回false
+     */
+    boolean offer(E element) {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = head.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * 取出元素
+     *
+     * @return 缓冲区为空时返回null
+     */
+    E poll() {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return tail.get() >= head.get();
+    }
+}
@@ -0,0 +1,27 @@
+package com.cgp.common.weblog;
+
+import java.util.List;
+
+/**
+ * web日志输出目标
+ * 由后台线程批量调用, 多个线程可能同时调用同一个实现. 声明为bean即可加入日志输出
+ *
+ * @author Manaphy
+ * @date 2026-10-17
+ */
+public interface WebLogSink {
+
+    /**
+     * 批量输出日志
+     *
+     * @param lines 已序列化为json的日志
+     * @throws Exception 输出失败, 只记录错误, 不影响其他输出目标
+     */
+    void write(List<String> lines) throws Exception;
+
+    /**
+     * 关闭 释放文件等资源
+     */
+    default void close() {
+    }
+}